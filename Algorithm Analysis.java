@@ -26,7 +26,44 @@
  *    eSort         Quick         O(n log n)           O(1)
  *    fSort         Bubble        O(n^2)               O(1)
  */
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
 import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 public class Assignment2_Start_F24 {
     /**
@@ -43,6 +80,49 @@ public class Assignment2_Start_F24 {
         array[b] = temp;
     }
 
+    /**
+     * What a sort did, counted the same way for every engine so they can be compared.
+     * Counting only happens when the JVM is started with -Dsorts.stats=true. Otherwise
+     * ENABLED is false and, since it is a static final, the JIT drops every
+     * "if (SortStats.ENABLED)" block from the compiled sorts, so they run at full speed.
+     */
+    static final class SortStats {
+        static final boolean ENABLED = Boolean.getBoolean("sorts.stats");
+
+        long compares;       // Comparisons between two array values
+        long swaps;          // Exchanges of two elements
+        long moves;          // Other single element writes, shifts and copies to or from a buffer
+        int maxDepth;        // Deepest recursion level reached, 0 for loops
+        long bytesAllocated; // Bytes of scratch arrays the sort allocated
+
+        /**
+         * The stats to pass when the caller does not want them, null when counting is off.
+         */
+        static SortStats ignored() {
+            return ENABLED ? new SortStats() : null;
+        }
+
+        void depth(int depth) {
+            if (depth > maxDepth) {
+                maxDepth = depth;
+            }
+        }
+
+        void add(SortStats other) {
+            compares += other.compares;
+            swaps += other.swaps;
+            moves += other.moves;
+            maxDepth = Math.max(maxDepth, other.maxDepth);
+            bytesAllocated += other.bytesAllocated;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("compares %,d swaps %,d moves %,d depth %d allocated %,d bytes",
+                    compares, swaps, moves, maxDepth, bytesAllocated);
+        }
+    }
+
     /**
      * Validate that an array is sorted,
      *
@@ -66,11 +146,7 @@ public class Assignment2_Start_F24 {
      * @param array array that might or might not be sorted
      */
     public static void shuffle(int[] array) {
-        Random rand = new Random();
-        for (int i = 0; i < array.length; i++) {
-            int j = rand.nextInt(array.length);
-            swap(array, i, j);
-        }
+        shuffle(array, new SplittableRandom());
     }
 
     /**
@@ -78,11 +154,15 @@ public class Assignment2_Start_F24 {
      */
 
     public static long selectionSort(int[] array) {
-        int startScan;   // Starting position of the scan
-        int index;       // To hold a subscript value
-        int minIndex;    // Element with smallest value in the scan
-        int minValue;    // The smallest value found in the scan
-        int counter = 0; // Counter for the number of operations
+        return selectionSort(array, SortStats.ignored());
+    }
+
+    public static long selectionSort(int[] array, SortStats stats) {
+        int startScan;    // Starting position of the scan
+        int index;        // To hold a subscript value
+        int minIndex;     // Element with smallest value in the scan
+        int minValue;     // The smallest value found in the scan
+        long counter = 0; // Counter for the number of operations
 
         // The outer loop iterates once for each element in the
         // array. The startScan variable marks the position where
@@ -108,25 +188,144 @@ public class Assignment2_Start_F24 {
             array[minIndex] = array[startScan];
             array[startScan] = minValue;
         }
+        if (SortStats.ENABLED) {
+            stats.compares += counter;
+            stats.swaps += Math.max(array.length - 1, 0);
+        }
         return counter;
     }
 
     /**
      * ---------------------------- Radix Sort ---------------------------------------
      */
+
+    // Bits sorted per LSD pass
+    private static final int RADIX_BITS = 8;
+    // Number of buckets per pass
+    private static final int RADIX_BUCKETS = 1 << RADIX_BITS;
+    // Number of passes needed to cover a 32 bit int
+    private static final int RADIX_PASSES = Integer.SIZE / RADIX_BITS;
+    // The counting sort is used when max - min + 1 is at most this many times the array length
+    private static final int COUNTING_RANGE_FACTOR = 2;
+    // Arrays above this size are sorted by parallelLsdRadixSort when there is more than one core
+    private static final int PARALLEL_RADIX_SIZE = 1 << 20;
+    // Smallest block one parallel radix task counts and scatters on its own
+    private static final int RADIX_BLOCK_SIZE = 1 << 16;
+    // ints in a 64 byte cache line
+    private static final int CACHE_LINE_INTS = 64 / Integer.BYTES;
+    // Length of one block's row of digit counts, padded by a cache line so two blocks never share one
+    private static final int RADIX_COUNT_STRIDE = RADIX_BUCKETS + CACHE_LINE_INTS;
+
     public static long radixSort(int[] array) {
-        int count = 0;
-        int counter = 0;
+        return radixSort(array, null, SortStats.ignored());
+    }
 
-        int min = array[0];
-        int max = array[0];
-        for (int i = 1; i < array.length; i++) {
+    public static long radixSort(int[] array, int[] scratch) {
+        return radixSort(array, scratch, SortStats.ignored());
+    }
+
+    /**
+     * Sorts with a counting sort when the values cover a small range compared to the array
+     * length, otherwise with a byte wise LSD radix sort that uses O(n + 256) extra memory
+     * whatever the values are.
+     *
+     * @param array The array to sort.
+     * @param scratch Buffer of at least array.length used by the LSD passes, or null to allocate one.
+     * @param stats Counters to add to, see SortStats.
+     * @return The number of assignments made.
+     */
+    public static long radixSort(int[] array, int[] scratch, SortStats stats) {
+        if (array.length < 2) {
+            return 0;
+        }
+        // The counting sort does not split across threads, so large arrays on a machine with several
+        // cores take the parallel LSD passes unless the counts fit in cache. A small range skips
+        // most of the passes anyway.
+        boolean parallel = array.length > PARALLEL_RADIX_SIZE && ForkJoinPool.getCommonPoolParallelism() > 1;
+        long[] minMax = parallel
+                ? ForkJoinPool.commonPool().invoke(new MinMaxTask(array, 0, array.length))
+                : minMax(array, 0, array.length);
+        int min = (int) minMax[0];
+        int max = (int) minMax[1];
+        if (SortStats.ENABLED)
+            stats.compares += minMax[2];
+        // long so the subtraction cannot overflow when the values span negative and positive
+        long range = (long) max - min + 1;
+        if (range <= (parallel ? RADIX_BLOCK_SIZE : (long) COUNTING_RANGE_FACTOR * array.length)) {
+            return countingSort(array, min, (int) range, stats);
+        }
+        if (scratch == null) {
+            scratch = new int[array.length];
+            if (SortStats.ENABLED)
+                stats.bytesAllocated += (long) Integer.BYTES * array.length;
+        } else if (scratch.length < array.length) {
+            throw new IllegalArgumentException("scratch is shorter than the array");
+        }
+        return parallel ? parallelLsdRadixSort(array, scratch, stats) : lsdRadixSort(array, array.length, scratch, stats);
+    }
+
+    /**
+     * Finds the smallest and largest values of array[lower..higher), which must not be empty.
+     *
+     * @return {min, max, number of comparisons made}
+     */
+    private static long[] minMax(int[] array, int lower, int higher) {
+        int min = array[lower];
+        int max = array[lower];
+        long compares = 0;
+        for (int i = lower + 1; i < higher; i++) {
+            if (SortStats.ENABLED)
+                compares += array[i] < min ? 1 : 2;
             if (array[i] < min)
                 min = array[i];
             else if (array[i] > max)
                 max = array[i];
         }
-        int b[] = new int[max - min + 1];
+        return new long[] {min, max, compares};
+    }
+
+    /**
+     * minMax of a large array, with the blocks scanned in parallel.
+     */
+    private static class MinMaxTask extends RecursiveTask<long[]> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] array;
+        private final int lower;
+        private final int higher;
+
+        MinMaxTask(int[] array, int lower, int higher) {
+            this.array = array;
+            this.lower = lower;
+            this.higher = higher;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (higher - lower <= RADIX_BLOCK_SIZE) {
+                return minMax(array, lower, higher);
+            }
+            int middle = lower + (higher - lower) / 2;
+            MinMaxTask left = new MinMaxTask(array, lower, middle);
+            left.fork();
+            long[] right = new MinMaxTask(array, middle, higher).compute();
+            long[] result = left.join();
+            result[0] = Math.min(result[0], right[0]);
+            result[1] = Math.max(result[1], right[1]);
+            // Joining the halves is two more comparisons
+            result[2] += right[2] + 2;
+            return result;
+        }
+    }
+
+    /**
+     * Counting sort, only used when the range of values is small enough to allocate a bucket per value.
+     */
+    private static long countingSort(int[] array, int min, int range, SortStats stats) {
+        int count = 0;
+        long counter = 0;
+
+        int b[] = new int[range];
         for (int i = 0; i < array.length; i++) {
             b[array[i] - min]++;
         }
@@ -136,34 +335,231 @@ public class Assignment2_Start_F24 {
                 array[count++] = i + min;
             }
         }
+        if (SortStats.ENABLED) {
+            stats.moves += counter;
+            stats.bytesAllocated += (long) Integer.BYTES * range;
+        }
+        return counter;
+    }
+
+    /**
+     * Byte wise LSD radix sort of array[0..n), which must not be empty. The passes alternate
+     * between array and scratch, and a pass whose digit is the same for every value is skipped.
+     */
+    private static long lsdRadixSort(int[] array, int n, int[] scratch, SortStats stats) {
+        long counter = 0;
+        int[] histograms = radixHistograms(array, 0, n);
+        int[] src = array;
+        int[] dst = scratch;
+        int[] offsets = new int[RADIX_BUCKETS];
+        for (int pass = 0; pass < RADIX_PASSES; pass++) {
+            int base = pass * RADIX_BUCKETS;
+            int shift = pass * RADIX_BITS;
+            // Every value has the same digit, the pass would not move anything
+            if (histograms[base + radixDigit(src[0], shift)] == n) {
+                continue;
+            }
+            int sum = 0;
+            for (int digit = 0; digit < RADIX_BUCKETS; digit++) {
+                offsets[digit] = sum;
+                sum += histograms[base + digit];
+            }
+            for (int i = 0; i < n; i++) {
+                int value = src[i];
+                dst[offsets[radixDigit(value, shift)]++] = value;
+            }
+            counter += n;
+            int[] temp = src;
+            src = dst;
+            dst = temp;
+        }
+        if (src != array) {
+            System.arraycopy(src, 0, array, 0, n);
+            counter += n;
+        }
+        if (SortStats.ENABLED) {
+            stats.moves += counter;
+            stats.bytesAllocated += (long) Integer.BYTES * (histograms.length + offsets.length);
+        }
+        return counter;
+    }
+
+    /**
+     * The digit of a value for the pass starting at shift. The sign bit is flipped on the
+     * top digit so negative values sort before positive ones.
+     */
+    private static int radixDigit(int value, int shift) {
+        if (shift == Integer.SIZE - RADIX_BITS) {
+            return (value >>> shift) ^ (RADIX_BUCKETS >>> 1);
+        }
+        return (value >>> shift) & (RADIX_BUCKETS - 1);
+    }
+
+    /**
+     * Counts the digits of array[lower..higher) for every pass in one scan.
+     *
+     * @return RADIX_PASSES histograms of RADIX_BUCKETS counts, one after another.
+     */
+    private static int[] radixHistograms(int[] array, int lower, int higher) {
+        int[] histograms = new int[RADIX_PASSES * RADIX_BUCKETS];
+        for (int i = lower; i < higher; i++) {
+            int value = array[i];
+            for (int pass = 0; pass < RADIX_PASSES; pass++) {
+                histograms[pass * RADIX_BUCKETS + radixDigit(value, pass * RADIX_BITS)]++;
+            }
+        }
+        return histograms;
+    }
+
+    /**
+     * LSD radix sort of a large array on every core. Each pass cuts the array into blocks and
+     *   1. counts the digits of every block in parallel, each block into its own row of counts,
+     *   2. turns the counts into where each block writes each digit, digit by digit and block by
+     *      block in that order, which keeps the sort stable,
+     *   3. scatters every block into the destination in parallel.
+     * Step 2 is a prefix sum over blocks * 256 counts, a few thousand additions next to the
+     * millions of values moved, so it runs on one thread. Blocks start on a cache line and the
+     * rows of counts are padded to one, so the tasks do not write to each other's lines.
+     */
+    private static long parallelLsdRadixSort(int[] array, int[] scratch, SortStats stats) {
+        int n = array.length;
+        int blocks = (int) Math.min(Math.max(1, n / RADIX_BLOCK_SIZE), 4L * ForkJoinPool.getCommonPoolParallelism());
+        // Round the block size up to whole cache lines
+        int blockSize = ((n + blocks - 1) / blocks + CACHE_LINE_INTS - 1) & -CACHE_LINE_INTS;
+        blocks = (n + blockSize - 1) / blockSize;
+        int[] counts = new int[blocks * RADIX_COUNT_STRIDE];
+        long counter = 0;
+        int[] src = array;
+        int[] dst = scratch;
+        for (int pass = 0; pass < RADIX_PASSES; pass++) {
+            int shift = pass * RADIX_BITS;
+            ForkJoinPool.commonPool().invoke(new RadixBlockTask(src, dst, shift, counts, blockSize, 0, blocks, false));
+            // Every value has the same digit, the pass would not move anything
+            int digit = radixDigit(src[0], shift);
+            int total = 0;
+            for (int block = 0; block < blocks; block++) {
+                total += counts[block * RADIX_COUNT_STRIDE + digit];
+            }
+            if (total == n) {
+                continue;
+            }
+            int sum = 0;
+            for (digit = 0; digit < RADIX_BUCKETS; digit++) {
+                for (int block = 0; block < blocks; block++) {
+                    int count = counts[block * RADIX_COUNT_STRIDE + digit];
+                    counts[block * RADIX_COUNT_STRIDE + digit] = sum;
+                    sum += count;
+                }
+            }
+            ForkJoinPool.commonPool().invoke(new RadixBlockTask(src, dst, shift, counts, blockSize, 0, blocks, true));
+            counter += n;
+            int[] temp = src;
+            src = dst;
+            dst = temp;
+        }
+        if (src != array) {
+            System.arraycopy(src, 0, array, 0, n);
+            counter += n;
+        }
+        if (SortStats.ENABLED) {
+            stats.moves += counter;
+            stats.bytesAllocated += (long) Integer.BYTES * counts.length;
+        }
         return counter;
     }
+
+    /**
+     * Counts or scatters blocks [lower..higher) of one parallel radix pass. Counting writes the
+     * digit counts of block b to counts[b * RADIX_COUNT_STRIDE..], scattering reads the block's
+     * start positions from there.
+     */
+    private static class RadixBlockTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] src;
+        private final int[] dst;
+        private final int shift;
+        private final int[] counts;
+        private final int blockSize;
+        private final int lower;
+        private final int higher;
+        private final boolean scatter;
+
+        RadixBlockTask(int[] src, int[] dst, int shift, int[] counts, int blockSize, int lower, int higher,
+                       boolean scatter) {
+            this.src = src;
+            this.dst = dst;
+            this.shift = shift;
+            this.counts = counts;
+            this.blockSize = blockSize;
+            this.lower = lower;
+            this.higher = higher;
+            this.scatter = scatter;
+        }
+
+        @Override
+        protected void compute() {
+            if (higher - lower > 1) {
+                int middle = (lower + higher) >>> 1;
+                invokeAll(new RadixBlockTask(src, dst, shift, counts, blockSize, lower, middle, scatter),
+                        new RadixBlockTask(src, dst, shift, counts, blockSize, middle, higher, scatter));
+                return;
+            }
+            int from = lower * blockSize;
+            int to = (int) Math.min((long) from + blockSize, src.length);
+            int row = lower * RADIX_COUNT_STRIDE;
+            if (!scatter) {
+                Arrays.fill(counts, row, row + RADIX_BUCKETS, 0);
+                for (int i = from; i < to; i++) {
+                    counts[row + radixDigit(src[i], shift)]++;
+                }
+                return;
+            }
+            // Work on a private copy of the positions, it stays in this core's L1
+            int[] offsets = Arrays.copyOfRange(counts, row, row + RADIX_BUCKETS);
+            for (int i = from; i < to; i++) {
+                int value = src[i];
+                dst[offsets[radixDigit(value, shift)]++] = value;
+            }
+        }
+    }
+
     /**
      * ---------------------------- Merge Sort ---------------------------------------
      */
     public static long mergeSort(int[] inputArray) {
+        return mergeSort(inputArray, SortStats.ignored());
+    }
+
+    public static long mergeSort(int[] inputArray, SortStats stats) {
         int length = inputArray.length;
         // Create array only once for merging
         int[] workingArray = new int[inputArray.length];
+        if (SortStats.ENABLED)
+            stats.bytesAllocated += (long) Integer.BYTES * length;
         long count = 0;
-        count = doMergeSort(inputArray, workingArray, 0, length - 1, count);
+        count = doMergeSort(inputArray, workingArray, 0, length - 1, count, 1, stats);
         return count;
     }
 
-    private static long doMergeSort(int[] inputArray, int[] workingArray, int lowerIndex, int higherIndex, long count) {
+    private static long doMergeSort(int[] inputArray, int[] workingArray, int lowerIndex, int higherIndex, long count,
+                                    int depth, SortStats stats) {
+        if (SortStats.ENABLED)
+            stats.depth(depth);
         if (lowerIndex < higherIndex) {
             int middle = lowerIndex + (higherIndex - lowerIndex) / 2;
             // Below step sorts the left side of the array
-            count = doMergeSort(inputArray, workingArray, lowerIndex, middle, count);
+            count = doMergeSort(inputArray, workingArray, lowerIndex, middle, count, depth + 1, stats);
             // Below step sorts the right side of the array
-            count = doMergeSort(inputArray, workingArray, middle + 1, higherIndex, count);
+            count = doMergeSort(inputArray, workingArray, middle + 1, higherIndex, count, depth + 1, stats);
             // Now merge both sides
-            count += part2(inputArray, workingArray, lowerIndex, middle, higherIndex);
+            count += part2(inputArray, workingArray, lowerIndex, middle, higherIndex, stats);
         }
         return count;
     }
 
-    private static long part2(int[] inputArray, int[] workingArray, int lowerIndex, int middle, int higherIndex) {
+    private static long part2(int[] inputArray, int[] workingArray, int lowerIndex, int middle, int higherIndex,
+                              SortStats stats) {
         long count = 0;
         for (int i = lowerIndex; i <= higherIndex; i++) {
             workingArray[i] = inputArray[i];
@@ -187,273 +583,6694 @@ public class Assignment2_Start_F24 {
             newIndex++;
             i1++;
         }
+        if (SortStats.ENABLED) {
+            stats.compares += count;
+            // The copy into workingArray plus the writes back
+            stats.moves += (higherIndex - lowerIndex + 1) + (newIndex - lowerIndex);
+        }
         return count;
     }
 
     /**
-     * ---------------------------- Insertion Sort ---------------------------------------
+     * ---------------------------- Parallel Merge Sort ---------------------------------------
      */
-    public static long insertionSort(int[] array) {
-        int unsortedValue;  // The first unsorted value
-        int scan;           // Used to scan the array
-        int counter = 0;   // Counter for the number of operations
 
-        // The outer loop steps the index variable through
-        // each subscript in the array, starting at 1. The portion of
-        // the array containing element 0  by itself is already sorted.
-        for (int index = 1; index < array.length; index++) {
-            // The first element outside the sorted portion is
-            // array[index]. Store the value of this element
-            // in unsortedValue.
-            unsortedValue = array[index];
+    // Default size at or below which a range is insertion sorted instead of split further
+    private static final int PARALLEL_MERGE_CUTOFF = 32;
+    // Ranges at or below this size are sorted on the current thread instead of being forked
+    private static final int PARALLEL_MERGE_FORK_SIZE = 8192;
 
-            // Start scan at the subscript of the first element
-            // outside the sorted part.
-            scan = index;
+    public static long parallelMergeSort(int[] inputArray) {
+        return parallelMergeSort(inputArray, PARALLEL_MERGE_CUTOFF, SortStats.ignored());
+    }
 
-            // Move the first element in the still unsorted part
-            // into its proper position within the sorted part.
-            while (scan > 0 && array[scan - 1] > unsortedValue) {
-                counter++;
-                array[scan] = array[scan - 1];
-                scan--;
-            }
+    public static long parallelMergeSort(int[] inputArray, int cutoff) {
+        return parallelMergeSort(inputArray, cutoff, SortStats.ignored());
+    }
 
-            // Insert the unsorted value in its proper position
-            // within the sorted subset.
-            array[scan] = unsortedValue;
+    /**
+     * Merge sort that splits the work across the common ForkJoinPool. Instead of copying each
+     * range into the working array before merging (as part2 does) the two arrays swap the
+     * source and destination roles on every level, so each element is moved once per level.
+     *
+     * @param inputArray The array to sort.
+     * @param cutoff Ranges of this size or smaller are insertion sorted.
+     * @param stats Counters to add to, see SortStats.
+     * @return The number of comparisons made.
+     */
+    public static long parallelMergeSort(int[] inputArray, int cutoff, SortStats stats) {
+        if (cutoff < 1) {
+            throw new IllegalArgumentException("cutoff must be at least 1");
         }
-        return counter;
+        // Create array only once for merging, both arrays start with the same contents
+        int[] workingArray = inputArray.clone();
+        MergeTask task = new MergeTask(workingArray, inputArray, 0, inputArray.length, cutoff, 1);
+        long count = ForkJoinPool.commonPool().invoke(task);
+        if (SortStats.ENABLED) {
+            stats.add(task.stats);
+            stats.compares += count;
+            stats.moves += inputArray.length; // The clone
+            stats.bytesAllocated += (long) Integer.BYTES * inputArray.length;
+        }
+        return count;
     }
 
     /**
-     * ---------------------------- Quick Sort ---------------------------------------
+     * Sorts src[lower..higher) into dst[lower..higher). Each task keeps its own comparison
+     * count and returns it from join(), so the threads never share a counter. The same goes
+     * for the SortStats, each task has its own and adds its children's after joining them.
      */
-    public static long quickSort(int array[]) {
+    private static class MergeTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] src;
+        private final int[] dst;
+        private final int lower;
+        private final int higher;
+        private final int cutoff;
+        private final int depth;
+        private final SortStats stats = SortStats.ignored();
 
-        return doQuickSort(array, 0, array.length - 1, 0);
+        MergeTask(int[] src, int[] dst, int lower, int higher, int cutoff, int depth) {
+            this.src = src;
+            this.dst = dst;
+            this.lower = lower;
+            this.higher = higher;
+            this.cutoff = cutoff;
+            this.depth = depth;
+        }
+
+        @Override
+        protected Long compute() {
+            if (higher - lower <= PARALLEL_MERGE_FORK_SIZE) {
+                return doParallelMergeSort(src, dst, lower, higher, cutoff, depth, stats);
+            }
+            int middle = lower + (higher - lower) / 2;
+            // Sort both halves into src using dst as the scratch space
+            MergeTask left = new MergeTask(dst, src, lower, middle, cutoff, depth + 1);
+            MergeTask right = new MergeTask(dst, src, middle, higher, cutoff, depth + 1);
+            left.fork();
+            long count = right.compute();
+            count += left.join();
+            if (SortStats.ENABLED) {
+                stats.depth(depth);
+                stats.add(left.stats);
+                stats.add(right.stats);
+            }
+            // Now merge both sides back into dst
+            return count + mergeInto(src, dst, lower, middle, higher, stats);
+        }
     }
 
     /**
-     * The doQuickSort method uses the quick sort algorithm to sort an int array.
-     *
-     * @param array The array to sort.
-     * @param start The starting subscript of the list to sort
-     * @param end The ending subscript of the list to sort
+     * The single threaded part of parallelMergeSort, sorts src[lower..higher) into dst[lower..higher).
+     * Both arrays must hold the same values in the range when it is first called.
      */
-    private static long doQuickSort(int array[], int start, int end, long numberOfCompares) {
-        int pivotPoint;
-
-        if (start < end) {
-            // Get the pivot point.
-            pivotPoint = part1(array, start, end);
-            // Note - only one +/=
-            numberOfCompares += (end - start);
-            // Sort the first sub list.
-            numberOfCompares = doQuickSort(array, start, pivotPoint - 1, numberOfCompares);
-
-            // Sort the second sub list.
-            numberOfCompares = doQuickSort(array, pivotPoint + 1, end, numberOfCompares);
+    private static long doParallelMergeSort(int[] src, int[] dst, int lower, int higher, int cutoff,
+                                            int depth, SortStats stats) {
+        if (SortStats.ENABLED)
+            stats.depth(depth);
+        if (higher - lower <= cutoff) {
+            // Nothing has written to this range yet so dst still holds the input values
+            return insertionSortRange(dst, lower, higher, stats);
         }
-        return numberOfCompares;
+        int middle = lower + (higher - lower) / 2;
+        long count = doParallelMergeSort(dst, src, lower, middle, cutoff, depth + 1, stats);
+        count += doParallelMergeSort(dst, src, middle, higher, cutoff, depth + 1, stats);
+        return count + mergeInto(src, dst, lower, middle, higher, stats);
     }
 
     /**
-     * The partition method selects a pivot value in an array and arranges the
-     * array into two sub lists. All the values less than the pivot will be
-     * stored in the left sub list and all the values greater than or equal to
-     * the pivot will be stored in the right sub list.
+     * Merges the sorted runs src[lower..middle) and src[middle..higher) into dst[lower..higher).
+     * Only the moves are added to stats, the comparisons are returned.
      *
-     * @param array The array to partition.
-     * @param start The starting subscript of the area to partition.
-     * @param end The ending subscript of the area to partition.
-     * @return The subscript of the pivot value.
+     * @return The number of comparisons made.
      */
-    private static int part1(int array[], int start, int end) {
-        int pivotValue;    // To hold the pivot value
-        int endOfLeftList; // Last element in the left sub list.
-        int mid;           // To hold the mid-point subscript
-
-        // Find the subscript of the middle element.
-        // This will be our pivot value.
-        mid = (start + end) / 2;
-
-        // Swap the middle element with the first element.
-        // This moves the pivot value to the start of
-        // the list.
-        swap(array, start, mid);
-
-        // Save the pivot value for comparisons.
-        pivotValue = array[start];
-
-        // For now, the end of the left sub list is
-        // the first element.
-        endOfLeftList = start;
-
-        // Scan the entire list and move any values that
-        // are less than the pivot value to the left
-        // sub list.
-        for (int scan = start + 1; scan <= end; scan++) {
-            if (array[scan] < pivotValue) {
-                endOfLeftList++;
-                swap(array, endOfLeftList, scan);
+    private static long mergeInto(int[] src, int[] dst, int lower, int middle, int higher, SortStats stats) {
+        long count = 1;
+        if (SortStats.ENABLED)
+            stats.moves += higher - lower;
+        // Already in order, the runs only need to be moved across
+        if (src[middle - 1] <= src[middle]) {
+            System.arraycopy(src, lower, dst, lower, higher - lower);
+            return count;
+        }
+        int i1 = lower;
+        int i2 = middle;
+        int newIndex = lower;
+        while (i1 < middle && i2 < higher) {
+            count++;
+            if (src[i1] <= src[i2]) {
+                dst[newIndex++] = src[i1++];
+            } else {
+                dst[newIndex++] = src[i2++];
             }
         }
-
-        // Move the pivot value to end of the
-        // left sub list.
-        swap(array, start, endOfLeftList);
-
-        // Return the subscript of the pivot value.
-        return endOfLeftList;
+        // Copy whichever run has elements left
+        System.arraycopy(src, i1, dst, newIndex, middle - i1);
+        System.arraycopy(src, i2, dst, newIndex + middle - i1, higher - i2);
+        return count;
     }
 
     /**
-     * ---------------------------- Bubble Sort ---------------------------------------
+     * Insertion sorts array[lower..higher). Only the moves are added to stats, the
+     * comparisons are returned.
+     *
+     * @return The number of comparisons made.
      */
-    public static long bubbleSort(int[] array) {
-        int lastPos;     // Position of last element to compare
-        int index;       // Index of an element to compare
-        int counter = 0; // Counter for the number of operations
-
-        // The outer loop positions lastPos at the last element
-        // to compare during each pass through the array. Initially
-        // lastPos is the index of the last element in the array.
-        // During each iteration, it is decreased by one.
-        for (lastPos = array.length - 1; lastPos >= 0; lastPos--) {
-            // The inner loop steps through the array, comparing
-            // each element with its neighbor. All of the elements
-            // from index 0 through lastPos are involved in the
-            // comparison. If two elements are out of order, they
-            // are swapped.
-            for (index = 0; index <= lastPos - 1; index++) {
-                // Compare an element with its neighbor.
-                counter++;
-                if (array[index] > array[index + 1]) {
-                    // Swap the two elements.
-
-                    swap(array, index, index + 1);
+    private static long insertionSortRange(int[] array, int lower, int higher, SortStats stats) {
+        long count = 0;
+        for (int index = lower + 1; index < higher; index++) {
+            int unsortedValue = array[index];
+            int scan = index;
+            while (scan > lower) {
+                count++;
+                if (array[scan - 1] <= unsortedValue) {
+                    break;
                 }
+                array[scan] = array[scan - 1];
+                scan--;
             }
+            array[scan] = unsortedValue;
+            if (SortStats.ENABLED)
+                stats.moves += index - scan + 1;
         }
-        return counter;
+        return count;
     }
 
     /**
-     * A demonstration of recursive counting in a Binary Search
-     * @param array - array to search
-     * @param low - the low index - set to 0 to search whiole array
-     * @param high - set to length of array to search whole array
-     * @param value - item to search for
-     * @param count - Used in recursion to accumulate the number of comparisons made (set to 0 on initial call)
-     *
-     * @return
+     * ---------------------------- Bottom-up Merge Sort ---------------------------------------
      */
-    private static int[] binarySearchR(int[] array, int low, int high, int value, int count)
-    {
-        int middle;     // Mid point of search
 
-        // Test for the base case where the value is not found.
-        if (low > high)
-            return new int[] {-1,count};
+    // Length of the runs insertion sorted before the first merge
+    private static final int BOTTOM_UP_RUN = 32;
+    // Values merged tile by tile before the whole array passes start, 4096 ints are 16 KB so a
+    // tile and its copy in the scratch buffer fit a 32 KB L1 data cache together
+    private static final int BOTTOM_UP_TILE = 4096;
 
-        // Calculate the middle position.
-        middle = (low + high) / 2;
+    public static long bottomUpMergeSort(int[] array) {
+        return bottomUpMergeSort(array, null, SortStats.ignored());
+    }
 
-        // Search for the value.
-        if (array[middle] == value)
+    public static long bottomUpMergeSort(int[] array, int[] scratch) {
+        return bottomUpMergeSort(array, scratch, SortStats.ignored());
+    }
+
+    /**
+     * Iterative merge sort. Runs of BOTTOM_UP_RUN values are insertion sorted in place, each
+     * tile of BOTTOM_UP_TILE values is then merged up while it is still in L1, and only then do
+     * the passes over the whole array start. Every pass merges from one buffer into the other
+     * with no copy back, so each value moves once per pass instead of twice as in part2, and
+     * two runs that are already in order are moved across without comparing.
+     *
+     * @param array The array to sort.
+     * @param scratch Buffer of at least array.length, or null to allocate one.
+     * @param stats Counters to add to, see SortStats.
+     * @return The number of comparisons made.
+     */
+    public static long bottomUpMergeSort(int[] array, int[] scratch, SortStats stats) {
+        int n = array.length;
+        if (scratch != null && scratch.length < n) {
+            throw new IllegalArgumentException("scratch is shorter than the array");
+        }
+        if (SortStats.ENABLED)
+            stats.depth(1);
+        long count = 0;
+        for (int lower = 0; lower < n; lower += BOTTOM_UP_RUN) {
+            count += insertionSortRange(array, lower, Math.min(lower + BOTTOM_UP_RUN, n), stats);
+        }
+        if (n <= BOTTOM_UP_RUN) {
+            // One run, the insertion sort has done it all
+            if (SortStats.ENABLED)
+                stats.compares += count;
+            return count;
+        }
+        if (scratch == null) {
+            scratch = new int[n];
+            if (SortStats.ENABLED)
+                stats.bytesAllocated += (long) Integer.BYTES * n;
+        }
+        int[] src = array;
+        int[] dst = scratch;
+        // Tile passes, stopping once a run covers the tile or the whole array if it is smaller.
+        // Every tile takes the same number of passes, so all of them end up in the same buffer,
+        // a short last tile just copies its one run across in the extra passes.
+        int tileWidth = Math.min(BOTTOM_UP_TILE, n);
+        for (int lower = 0; lower < n; lower += BOTTOM_UP_TILE) {
+            int higher = Math.min(lower + BOTTOM_UP_TILE, n);
+            int[] from = array;
+            int[] to = scratch;
+            for (int width = BOTTOM_UP_RUN; width < tileWidth; width *= 2) {
+                count += mergePass(from, to, lower, higher, width, stats);
+                int[] temp = from;
+                from = to;
+                to = temp;
+            }
+            src = from;
+            dst = to;
+        }
+        // Passes over the whole array
+        for (int width = BOTTOM_UP_TILE; width < n; width *= 2) {
+            count += mergePass(src, dst, 0, n, width, stats);
+            int[] temp = src;
+            src = dst;
+            dst = temp;
+        }
+        if (src != array) {
+            System.arraycopy(src, 0, array, 0, n);
+            if (SortStats.ENABLED)
+                stats.moves += n;
+        }
+        if (SortStats.ENABLED)
+            stats.compares += count;
+        return count;
+    }
+
+    /**
+     * Merges each pair of sorted runs of the given width in src[lower..higher) into dst.
+     *
+     * @return The number of comparisons made.
+     */
+    private static long mergePass(int[] src, int[] dst, int lower, int higher, int width, SortStats stats) {
+        long count = 0;
+        for (int start = lower; start < higher; start += 2 * width) {
+            int middle = Math.min(start + width, higher);
+            int end = Math.min(start + 2 * width, higher);
+            if (middle == end || src[middle - 1] <= src[middle]) {
+                // No right run, or the runs are already in order
+                if (middle < end)
+                    count++;
+                System.arraycopy(src, start, dst, start, end - start);
+            } else {
+                count += 1 + branchlessMerge(src, dst, start, middle, end);
+            }
+        }
+        if (SortStats.ENABLED)
+            stats.moves += higher - lower;
+        return count;
+    }
+
+    /**
+     * Merges src[lower..middle) and src[middle..higher) into dst[lower..higher). The loop picks the
+     * next value and advances the indexes with conditional expressions instead of an if/else, which
+     * the JIT compiles to conditional moves, so random data does not cost a branch miss per value.
+     *
+     * @return The number of comparisons made.
+     */
+    private static long branchlessMerge(int[] src, int[] dst, int lower, int middle, int higher) {
+        int i1 = lower;
+        int i2 = middle;
+        int newIndex = lower;
+        while (i1 < middle && i2 < higher) {
+            int left = src[i1];
+            int right = src[i2];
+            boolean takeRight = right < left; // Ties take the left value, which keeps the sort stable
+            dst[newIndex++] = takeRight ? right : left;
+            i1 += takeRight ? 0 : 1;
+            i2 += takeRight ? 1 : 0;
+        }
+        long count = newIndex - lower;
+        // Copy whichever run has elements left
+        System.arraycopy(src, i1, dst, newIndex, middle - i1);
+        System.arraycopy(src, i2, dst, newIndex + middle - i1, higher - i2);
+        return count;
+    }
+
+    /**
+     * ---------------------------- Adaptive Merge Sort ---------------------------------------
+     */
+
+    /**
+     * Natural merge sort in the style of TimSort. Ascending runs already in the data are kept,
+     * strictly descending runs are reversed, short runs are extended with a binary insertion
+     * sort, and the runs are merged with galloping so long stretches that come from one side
+     * are moved as a block. Sorted input costs n - 1 comparisons. Stable.
+     *
+     * @param array The array to sort.
+     * @return The number of comparisons made.
+     */
+    public static long adaptiveSort(int[] array) {
+        return adaptiveSort(array, SortStats.ignored());
+    }
+
+    public static long adaptiveSort(int[] array, SortStats stats) {
+        long count = new AdaptiveSorter(array, stats).sort();
+        if (SortStats.ENABLED)
+            stats.compares += count;
+        return count;
+    }
+
+    private static final class AdaptiveSorter {
+        // Arrays shorter than this are sorted with one binary insertion sort
+        private static final int MIN_MERGE = 32;
+        // Wins in a row before a merge switches to galloping
+        private static final int MIN_GALLOP = 7;
+
+        private final int[] a;
+        private final SortStats stats; // Moves and allocations, the comparisons are returned by sort()
+        private int[] tmp = new int[0];
+        private int minGallop = MIN_GALLOP;
+        // Stack of runs waiting to be merged, 49 is enough for any int length
+        private final int[] runBase = new int[49];
+        private final int[] runLen = new int[49];
+        private int stackSize;
+        private long count; // Comparisons made
+
+        AdaptiveSorter(int[] a, SortStats stats) {
+            this.a = a;
+            this.stats = stats;
+        }
+
+        long sort() {
+            int n = a.length;
+            if (n < 2) {
+                return 0;
+            }
+            if (n < MIN_MERGE) {
+                int run = countRunAndMakeAscending(0, n);
+                binaryInsertionSort(0, n, run);
+                return count;
+            }
+            int minRun = minRunLength(n);
+            int lower = 0;
+            int remaining = n;
+            do {
+                int run = countRunAndMakeAscending(lower, n);
+                if (run < minRun) {
+                    int force = Math.min(remaining, minRun);
+                    binaryInsertionSort(lower, lower + force, lower + run);
+                    run = force;
+                }
+                runBase[stackSize] = lower;
+                runLen[stackSize] = run;
+                stackSize++;
+                mergeCollapse();
+                lower += run;
+                remaining -= run;
+            } while (remaining != 0);
+            mergeForceCollapse();
+            return count;
+        }
+
+        private boolean less(int x, int y) {
+            count++;
+            return x < y;
+        }
+
+        /**
+         * Finds the length of the run starting at lower, reversing it if it is strictly descending.
+         */
+        private int countRunAndMakeAscending(int lower, int higher) {
+            int runHi = lower + 1;
+            if (runHi == higher) {
+                return 1;
+            }
+            if (less(a[runHi++], a[lower])) {
+                while (runHi < higher && less(a[runHi], a[runHi - 1])) {
+                    runHi++;
+                }
+                // Strictly descending, so reversing cannot reorder equal values
+                for (int i = lower, j = runHi - 1; i < j; i++, j--) {
+                    swap(a, i, j);
+                }
+                if (SortStats.ENABLED)
+                    stats.swaps += (runHi - lower) / 2;
+            } else {
+                while (runHi < higher && !less(a[runHi], a[runHi - 1])) {
+                    runHi++;
+                }
+            }
+            return runHi - lower;
+        }
+
+        /**
+         * Sorts a[lower..higher) when a[lower..start) is already sorted.
+         */
+        private void binaryInsertionSort(int lower, int higher, int start) {
+            for (; start < higher; start++) {
+                int pivot = a[start];
+                int left = lower;
+                int right = start;
+                while (left < right) {
+                    int mid = (left + right) >>> 1;
+                    if (less(pivot, a[mid])) {
+                        right = mid;
+                    } else {
+                        left = mid + 1;
+                    }
+                }
+                System.arraycopy(a, left, a, left + 1, start - left);
+                a[left] = pivot;
+                if (SortStats.ENABLED)
+                    stats.moves += start - left + 1;
+            }
+        }
+
+        // Picks a run length in [16, 32] so that n / minRun is a power of two or just below one
+        private static int minRunLength(int n) {
+            int r = 0;
+            while (n >= MIN_MERGE) {
+                r |= (n & 1);
+                n >>= 1;
+            }
+            return n + r;
+        }
+
+        /**
+         * Merges runs until the stack lengths shrink faster than the Fibonacci numbers, which
+         * keeps the merges balanced and the stack short.
+         */
+        private void mergeCollapse() {
+            while (stackSize > 1) {
+                int n = stackSize - 2;
+                if (n > 0 && runLen[n - 1] <= runLen[n] + runLen[n + 1]
+                        || n > 1 && runLen[n - 2] <= runLen[n] + runLen[n - 1]) {
+                    if (runLen[n - 1] < runLen[n + 1]) {
+                        n--;
+                    }
+                } else if (runLen[n] > runLen[n + 1]) {
+                    break;
+                }
+                mergeAt(n);
+            }
+        }
+
+        private void mergeForceCollapse() {
+            while (stackSize > 1) {
+                int n = stackSize - 2;
+                if (n > 0 && runLen[n - 1] < runLen[n + 1]) {
+                    n--;
+                }
+                mergeAt(n);
+            }
+        }
+
+        /**
+         * Merges the runs at stack positions i and i + 1.
+         */
+        private void mergeAt(int i) {
+            int base1 = runBase[i];
+            int len1 = runLen[i];
+            int base2 = runBase[i + 1];
+            int len2 = runLen[i + 1];
+            runLen[i] = len1 + len2;
+            if (i == stackSize - 3) {
+                runBase[i + 1] = runBase[i + 2];
+                runLen[i + 1] = runLen[i + 2];
+            }
+            stackSize--;
+
+            // Values of run 1 that are <= the first of run 2 are already in place
+            int k = gallopRight(a[base2], a, base1, len1, 0);
+            base1 += k;
+            len1 -= k;
+            if (len1 == 0) {
+                return;
+            }
+            // Likewise values of run 2 that are >= the last of run 1
+            len2 = gallopLeft(a[base1 + len1 - 1], a, base2, len2, len2 - 1);
+            if (len2 == 0) {
+                return;
+            }
+            if (SortStats.ENABLED)
+                // Every value of the two runs is written once, plus the copy of the shorter run
+                stats.moves += len1 + len2 + Math.min(len1, len2);
+            if (len1 <= len2) {
+                mergeLo(base1, len1, base2, len2);
+            } else {
+                mergeHi(base1, len1, base2, len2);
+            }
+        }
+
+        /**
+         * @return The position in array[base..base+len) where key would go before any equal value.
+         */
+        private int gallopLeft(int key, int[] array, int base, int len, int hint) {
+            int lastOfs = 0;
+            int ofs = 1;
+            if (less(array[base + hint], key)) {
+                // Gallop right until array[base+hint+lastOfs] < key <= array[base+hint+ofs]
+                int maxOfs = len - hint;
+                while (ofs < maxOfs && less(array[base + hint + ofs], key)) {
+                    lastOfs = ofs;
+                    ofs = (ofs << 1) + 1;
+                    if (ofs <= 0) {
+                        ofs = maxOfs;
+                    }
+                }
+                ofs = Math.min(ofs, maxOfs);
+                lastOfs += hint;
+                ofs += hint;
+            } else {
+                // Gallop left until array[base+hint-ofs] < key <= array[base+hint-lastOfs]
+                int maxOfs = hint + 1;
+                while (ofs < maxOfs && !less(array[base + hint - ofs], key)) {
+                    lastOfs = ofs;
+                    ofs = (ofs << 1) + 1;
+                    if (ofs <= 0) {
+                        ofs = maxOfs;
+                    }
+                }
+                ofs = Math.min(ofs, maxOfs);
+                int temp = lastOfs;
+                lastOfs = hint - ofs;
+                ofs = hint - temp;
+            }
+            // Binary search the gap the gallop found
+            lastOfs++;
+            while (lastOfs < ofs) {
+                int m = lastOfs + ((ofs - lastOfs) >>> 1);
+                if (less(array[base + m], key)) {
+                    lastOfs = m + 1;
+                } else {
+                    ofs = m;
+                }
+            }
+            return ofs;
+        }
+
+        /**
+         * @return The position in array[base..base+len) where key would go after any equal value.
+         */
+        private int gallopRight(int key, int[] array, int base, int len, int hint) {
+            int lastOfs = 0;
+            int ofs = 1;
+            if (less(key, array[base + hint])) {
+                int maxOfs = hint + 1;
+                while (ofs < maxOfs && less(key, array[base + hint - ofs])) {
+                    lastOfs = ofs;
+                    ofs = (ofs << 1) + 1;
+                    if (ofs <= 0) {
+                        ofs = maxOfs;
+                    }
+                }
+                ofs = Math.min(ofs, maxOfs);
+                int temp = lastOfs;
+                lastOfs = hint - ofs;
+                ofs = hint - temp;
+            } else {
+                int maxOfs = len - hint;
+                while (ofs < maxOfs && !less(key, array[base + hint + ofs])) {
+                    lastOfs = ofs;
+                    ofs = (ofs << 1) + 1;
+                    if (ofs <= 0) {
+                        ofs = maxOfs;
+                    }
+                }
+                ofs = Math.min(ofs, maxOfs);
+                lastOfs += hint;
+                ofs += hint;
+            }
+            lastOfs++;
+            while (lastOfs < ofs) {
+                int m = lastOfs + ((ofs - lastOfs) >>> 1);
+                if (less(key, array[base + m])) {
+                    ofs = m;
+                } else {
+                    lastOfs = m + 1;
+                }
+            }
+            return ofs;
+        }
+
+        /**
+         * Merges two adjacent runs when the first is the shorter one. The first run is copied
+         * to tmp and the merge fills the array from the left.
+         */
+        private void mergeLo(int base1, int len1, int base2, int len2) {
+            int[] work = ensureCapacity(len1);
+            System.arraycopy(a, base1, work, 0, len1);
+            int cursor1 = 0;
+            int cursor2 = base2;
+            int dest = base1;
+
+            // The first value of run 2 is known to be the smallest
+            a[dest++] = a[cursor2++];
+            if (--len2 == 0) {
+                System.arraycopy(work, cursor1, a, dest, len1);
+                return;
+            }
+            if (len1 == 1) {
+                System.arraycopy(a, cursor2, a, dest, len2);
+                a[dest + len2] = work[cursor1];
+                return;
+            }
+
+            int gallop = minGallop;
+            outer:
+            while (true) {
+                int count1 = 0; // Times in a row run 1 won
+                int count2 = 0; // Times in a row run 2 won
+                // One value at a time until one run starts winning consistently
+                do {
+                    if (less(a[cursor2], work[cursor1])) {
+                        a[dest++] = a[cursor2++];
+                        count2++;
+                        count1 = 0;
+                        if (--len2 == 0) {
+                            break outer;
+                        }
+                    } else {
+                        a[dest++] = work[cursor1++];
+                        count1++;
+                        count2 = 0;
+                        if (--len1 == 1) {
+                            break outer;
+                        }
+                    }
+                } while ((count1 | count2) < gallop);
+
+                // Galloping, move whole blocks while it keeps paying off
+                do {
+                    count1 = gallopRight(a[cursor2], work, cursor1, len1, 0);
+                    if (count1 != 0) {
+                        System.arraycopy(work, cursor1, a, dest, count1);
+                        dest += count1;
+                        cursor1 += count1;
+                        len1 -= count1;
+                        if (len1 <= 1) {
+                            break outer;
+                        }
+                    }
+                    a[dest++] = a[cursor2++];
+                    if (--len2 == 0) {
+                        break outer;
+                    }
+                    count2 = gallopLeft(work[cursor1], a, cursor2, len2, 0);
+                    if (count2 != 0) {
+                        System.arraycopy(a, cursor2, a, dest, count2);
+                        dest += count2;
+                        cursor2 += count2;
+                        len2 -= count2;
+                        if (len2 == 0) {
+                            break outer;
+                        }
+                    }
+                    a[dest++] = work[cursor1++];
+                    if (--len1 == 1) {
+                        break outer;
+                    }
+                    gallop--;
+                } while (count1 >= MIN_GALLOP | count2 >= MIN_GALLOP);
+                // Make it harder to start galloping again after it stopped paying off
+                gallop = Math.max(gallop, 0) + 2;
+            }
+            minGallop = Math.max(gallop, 1);
+
+            if (len1 == 1) {
+                System.arraycopy(a, cursor2, a, dest, len2);
+                a[dest + len2] = work[cursor1];
+            } else {
+                System.arraycopy(work, cursor1, a, dest, len1);
+            }
+        }
+
+        /**
+         * Merges two adjacent runs when the second is the shorter one. The second run is copied
+         * to tmp and the merge fills the array from the right.
+         */
+        private void mergeHi(int base1, int len1, int base2, int len2) {
+            int[] work = ensureCapacity(len2);
+            System.arraycopy(a, base2, work, 0, len2);
+            int cursor1 = base1 + len1 - 1;
+            int cursor2 = len2 - 1;
+            int dest = base2 + len2 - 1;
+
+            // The last value of run 1 is known to be the largest
+            a[dest--] = a[cursor1--];
+            if (--len1 == 0) {
+                System.arraycopy(work, 0, a, dest - (len2 - 1), len2);
+                return;
+            }
+            if (len2 == 1) {
+                dest -= len1;
+                cursor1 -= len1;
+                System.arraycopy(a, cursor1 + 1, a, dest + 1, len1);
+                a[dest] = work[cursor2];
+                return;
+            }
+
+            int gallop = minGallop;
+            outer:
+            while (true) {
+                int count1 = 0;
+                int count2 = 0;
+                do {
+                    if (less(work[cursor2], a[cursor1])) {
+                        a[dest--] = a[cursor1--];
+                        count1++;
+                        count2 = 0;
+                        if (--len1 == 0) {
+                            break outer;
+                        }
+                    } else {
+                        a[dest--] = work[cursor2--];
+                        count2++;
+                        count1 = 0;
+                        if (--len2 == 1) {
+                            break outer;
+                        }
+                    }
+                } while ((count1 | count2) < gallop);
+
+                do {
+                    count1 = len1 - gallopRight(work[cursor2], a, base1, len1, len1 - 1);
+                    if (count1 != 0) {
+                        dest -= count1;
+                        cursor1 -= count1;
+                        len1 -= count1;
+                        System.arraycopy(a, cursor1 + 1, a, dest + 1, count1);
+                        if (len1 == 0) {
+                            break outer;
+                        }
+                    }
+                    a[dest--] = work[cursor2--];
+                    if (--len2 == 1) {
+                        break outer;
+                    }
+                    count2 = len2 - gallopLeft(a[cursor1], work, 0, len2, len2 - 1);
+                    if (count2 != 0) {
+                        dest -= count2;
+                        cursor2 -= count2;
+                        len2 -= count2;
+                        System.arraycopy(work, cursor2 + 1, a, dest + 1, count2);
+                        if (len2 <= 1) {
+                            break outer;
+                        }
+                    }
+                    a[dest--] = a[cursor1--];
+                    if (--len1 == 0) {
+                        break outer;
+                    }
+                    gallop--;
+                } while (count1 >= MIN_GALLOP | count2 >= MIN_GALLOP);
+                gallop = Math.max(gallop, 0) + 2;
+            }
+            minGallop = Math.max(gallop, 1);
+
+            if (len2 == 1) {
+                dest -= len1;
+                cursor1 -= len1;
+                System.arraycopy(a, cursor1 + 1, a, dest + 1, len1);
+                a[dest] = work[cursor2];
+            } else {
+                System.arraycopy(work, 0, a, dest - (len2 - 1), len2);
+            }
+        }
+
+        private int[] ensureCapacity(int length) {
+            if (tmp.length < length) {
+                // Grow geometrically, but the shorter run is never more than half the array
+                tmp = new int[Math.max(length, Math.min(2 * tmp.length, a.length >>> 1))];
+                if (SortStats.ENABLED)
+                    stats.bytesAllocated += (long) Integer.BYTES * tmp.length;
+            }
+            return tmp;
+        }
+    }
+
+    /**
+     * How sorted an array already is, see probePresortedness.
+     */
+    public static final class PresortProfile {
+        public final int length;
+        public final int runs;                 // Number of maximal non-descending runs
+        public final int descents;             // Adjacent pairs that are out of order, runs - 1
+        public final double inversionFraction; // Estimated share of pairs out of order, 0 sorted, 1 reversed
+
+        PresortProfile(int length, int descents, double inversionFraction) {
+            this.length = length;
+            this.runs = length == 0 ? 0 : descents + 1;
+            this.descents = descents;
+            this.inversionFraction = inversionFraction;
+        }
+
+        /**
+         * @return The estimated number of inversions, pairs i < j with array[i] > array[j].
+         */
+        public double inversionEstimate() {
+            return inversionFraction * length * (length - 1.0) / 2;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("n=%,d runs=%,d inversions~%.1f%%", length, runs, inversionFraction * 100);
+        }
+    }
+
+    // Number of random pairs probePresortedness checks to estimate the inversions
+    private static final int INVERSION_SAMPLES = 1024;
+
+    /**
+     * Measures how sorted an array is without changing it, in one pass plus a fixed number of
+     * sampled pairs, so it is cheap compared to any sort.
+     *
+     * @param array The array to look at.
+     * @return The run count and an inversion estimate.
+     */
+    public static PresortProfile probePresortedness(int[] array) {
+        int n = array.length;
+        int descents = 0;
+        for (int i = 1; i < n; i++) {
+            if (array[i - 1] > array[i]) {
+                descents++;
+            }
+        }
+        if (n < 2) {
+            return new PresortProfile(n, 0, 0);
+        }
+        // Fixed seed so the same array always gives the same estimate
+        SplittableRandom rand = new SplittableRandom(n);
+        int inverted = 0;
+        for (int s = 0; s < INVERSION_SAMPLES; s++) {
+            int i = rand.nextInt(n);
+            int j = rand.nextInt(n);
+            if (i == j) {
+                j = i == n - 1 ? i - 1 : i + 1;
+            }
+            int lower = Math.min(i, j);
+            int higher = Math.max(i, j);
+            if (array[lower] > array[higher]) {
+                inverted++;
+            }
+        }
+        return new PresortProfile(n, descents, inverted / (double) INVERSION_SAMPLES);
+    }
+
+    /**
+     * ---------------------------- Insertion Sort ---------------------------------------
+     */
+    public static long insertionSort(int[] array) {
+        return insertionSort(array, SortStats.ignored());
+    }
+
+    public static long insertionSort(int[] array, SortStats stats) {
+        int unsortedValue;  // The first unsorted value
+        int scan;           // Used to scan the array
+        long counter = 0;   // Counter for the number of operations
+
+        // The outer loop steps the index variable through
+        // each subscript in the array, starting at 1. The portion of
+        // the array containing element 0  by itself is already sorted.
+        for (int index = 1; index < array.length; index++) {
+            // The first element outside the sorted portion is
+            // array[index]. Store the value of this element
+            // in unsortedValue.
+            unsortedValue = array[index];
+
+            // Start scan at the subscript of the first element
+            // outside the sorted part.
+            scan = index;
+
+            // Move the first element in the still unsorted part
+            // into its proper position within the sorted part.
+            while (scan > 0 && array[scan - 1] > unsortedValue) {
+                counter++;
+                array[scan] = array[scan - 1];
+                scan--;
+            }
+
+            // Insert the unsorted value in its proper position
+            // within the sorted subset.
+            array[scan] = unsortedValue;
+            if (SortStats.ENABLED)
+                // The shifts each made a comparison, plus the one that stopped the scan
+                stats.compares += (index - scan) + (scan > 0 ? 1 : 0);
+        }
+        if (SortStats.ENABLED)
+            stats.moves += counter + Math.max(array.length - 1, 0);
+        return counter;
+    }
+
+    /**
+     * ---------------------------- Quick Sort ---------------------------------------
+     */
+    public static long quickSort(int array[]) {
+
+        return quickSort(array, SortStats.ignored());
+    }
+
+    public static long quickSort(int array[], SortStats stats) {
+
+        return doQuickSort(array, 0, array.length - 1, 0, 1, stats);
+    }
+
+    /**
+     * The doQuickSort method uses the quick sort algorithm to sort an int array.
+     *
+     * @param array The array to sort.
+     * @param start The starting subscript of the list to sort
+     * @param end The ending subscript of the list to sort
+     * @param depth The recursion level of this call
+     * @param stats Counters to add to, see SortStats
+     */
+    private static long doQuickSort(int array[], int start, int end, long numberOfCompares, int depth,
+                                    SortStats stats) {
+        int pivotPoint;
+
+        if (SortStats.ENABLED)
+            stats.depth(depth);
+        if (start < end) {
+            // Get the pivot point.
+            pivotPoint = part1(array, start, end, stats);
+            // Note - only one +/=
+            numberOfCompares += (end - start);
+            if (SortStats.ENABLED)
+                stats.compares += (end - start);
+            // Sort the first sub list.
+            numberOfCompares = doQuickSort(array, start, pivotPoint - 1, numberOfCompares, depth + 1, stats);
+
+            // Sort the second sub list.
+            numberOfCompares = doQuickSort(array, pivotPoint + 1, end, numberOfCompares, depth + 1, stats);
+        }
+        return numberOfCompares;
+    }
+
+    /**
+     * The partition method selects a pivot value in an array and arranges the
+     * array into two sub lists. All the values less than the pivot will be
+     * stored in the left sub list and all the values greater than or equal to
+     * the pivot will be stored in the right sub list.
+     *
+     * @param array The array to partition.
+     * @param start The starting subscript of the area to partition.
+     * @param end The ending subscript of the area to partition.
+     * @param stats Counters to add the swaps to.
+     * @return The subscript of the pivot value.
+     */
+    private static int part1(int array[], int start, int end, SortStats stats) {
+        int pivotValue;    // To hold the pivot value
+        int endOfLeftList; // Last element in the left sub list.
+        int mid;           // To hold the mid-point subscript
+
+        // Find the subscript of the middle element.
+        // This will be our pivot value.
+        mid = (start + end) / 2;
+
+        // Swap the middle element with the first element.
+        // This moves the pivot value to the start of
+        // the list.
+        swap(array, start, mid);
+
+        // Save the pivot value for comparisons.
+        pivotValue = array[start];
+
+        // For now, the end of the left sub list is
+        // the first element.
+        endOfLeftList = start;
+
+        // Scan the entire list and move any values that
+        // are less than the pivot value to the left
+        // sub list.
+        for (int scan = start + 1; scan <= end; scan++) {
+            if (array[scan] < pivotValue) {
+                endOfLeftList++;
+                swap(array, endOfLeftList, scan);
+                if (SortStats.ENABLED)
+                    stats.swaps++;
+            }
+        }
+
+        // Move the pivot value to end of the
+        // left sub list.
+        swap(array, start, endOfLeftList);
+        if (SortStats.ENABLED)
+            // The two swaps that move the pivot out and back
+            stats.swaps += 2;
+
+        // Return the subscript of the pivot value.
+        return endOfLeftList;
+    }
+
+    /**
+     * ---------------------------- Intro Quick Sort ---------------------------------------
+     */
+
+    // Ranges at or below this size are insertion sorted
+    private static final int INTRO_INSERTION_CUTOFF = 24;
+    // Ranges above this size pick the pivot with a ninther instead of a median of three
+    private static final int NINTHER_SIZE = 128;
+    // Partitions above this size are handed to another ForkJoinPool worker
+    private static final int PARALLEL_QUICK_FORK_SIZE = 8192;
+
+    /**
+     * Quick sort that is safe against inputs built to defeat it. The pivot is a median of three
+     * (ninther for large ranges), runs of values equal to the pivot are split off by a three way
+     * partition, and a range that recurses deeper than 2 log2(n) levels is heap sorted so the
+     * worst case stays O(n log n). Large partitions are sorted in parallel.
+     *
+     * @param array The array to sort.
+     * @return The number of comparisons made.
+     */
+    public static long introQuickSort(int[] array) {
+        return introQuickSort(array, SortStats.ignored());
+    }
+
+    public static long introQuickSort(int[] array, SortStats stats) {
+        return introQuickSort(array, PARALLEL_QUICK_FORK_SIZE, stats);
+    }
+
+    /**
+     * introQuickSort on the calling thread only, for callers that choose between the serial
+     * and the parallel engines themselves.
+     */
+    static long serialIntroQuickSort(int[] array, SortStats stats) {
+        return introQuickSort(array, Integer.MAX_VALUE, stats);
+    }
+
+    /**
+     * @param forkSize Partitions above this size are handed to another worker, Integer.MAX_VALUE
+     *                 keeps the whole sort on the calling thread.
+     */
+    private static long introQuickSort(int[] array, int forkSize, SortStats stats) {
+        if (array.length < 2) {
+            return 0;
+        }
+        int depthLimit = 2 * (31 - Integer.numberOfLeadingZeros(array.length));
+        QuickTask task = new QuickTask(array, 0, array.length, depthLimit, 1, forkSize);
+        // A task that never forks runs on this thread, invoke outside a pool does not switch threads
+        long count = forkSize == Integer.MAX_VALUE ? task.invoke() : ForkJoinPool.commonPool().invoke(task);
+        if (SortStats.ENABLED) {
+            stats.add(task.stats);
+            stats.compares += count;
+        }
+        return count;
+    }
+
+    /**
+     * Sorts array[lower..higher). Every task counts its own comparisons and adds the counts of
+     * the tasks it forked when it joins them, so the threads never share a counter. The
+     * SortStats of the forked tasks are added the same way.
+     */
+    private static class QuickTask extends RecursiveTask<Long> {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] array;
+        private final int lower;
+        private final int higher;
+        private final int depthLimit;
+        private final int level; // Recursion level the task starts at
+        private final int forkSize; // Partitions above this size are forked
+        private final List<QuickTask> forked = new ArrayList<>();
+        private final SortStats stats = SortStats.ignored(); // Swaps, moves and depth of this task
+        private long count;     // Comparisons made by this task
+        private int lessEnd;    // Set by partition, end of the values less than the pivot
+        private int greaterStart; // Set by partition, start of the values greater than the pivot
+
+        QuickTask(int[] array, int lower, int higher, int depthLimit, int level) {
+            this(array, lower, higher, depthLimit, level, PARALLEL_QUICK_FORK_SIZE);
+        }
+
+        QuickTask(int[] array, int lower, int higher, int depthLimit, int level, int forkSize) {
+            this.array = array;
+            this.lower = lower;
+            this.higher = higher;
+            this.depthLimit = depthLimit;
+            this.level = level;
+            this.forkSize = forkSize;
+        }
+
+        @Override
+        protected Long compute() {
+            sort(lower, higher, depthLimit, level);
+            for (QuickTask task : forked) {
+                count += task.join();
+                if (SortStats.ENABLED)
+                    stats.add(task.stats);
+            }
+            return count;
+        }
+
+        private void sort(int start, int end, int depth, int level) {
+            if (SortStats.ENABLED)
+                stats.depth(level);
+            while (end - start > INTRO_INSERTION_CUTOFF) {
+                if (depth == 0) {
+                    // Too many bad pivots, finish this range with heap sort
+                    heapSort(start, end);
+                    return;
+                }
+                depth--;
+                partition(start, end);
+                int left = lessEnd;
+                int right = greaterStart;
+                if (left - start > forkSize) {
+                    // Hand the left side to another worker and keep the right side
+                    QuickTask task = new QuickTask(array, start, left, depth, level + 1, forkSize);
+                    task.fork();
+                    forked.add(task);
+                    start = right;
+                } else if (left - start < end - right) {
+                    // Recurse on the smaller side so the stack stays O(log n)
+                    sort(start, left, depth, level + 1);
+                    start = right;
+                } else {
+                    sort(right, end, depth, level + 1);
+                    end = left;
+                }
+            }
+            count += insertionSortRange(array, start, end, stats);
+        }
+
+        /**
+         * Three way partition of array[start..end) around the chosen pivot. Afterwards
+         * array[start..lessEnd) < pivot, array[lessEnd..greaterStart) == pivot and
+         * array[greaterStart..end) > pivot.
+         */
+        private void partition(int start, int end) {
+            int pivotValue = array[choosePivot(start, end)];
+            int lt = start;
+            int scan = start;
+            int gt = end;
+            while (scan < gt) {
+                int value = array[scan];
+                count++;
+                if (value < pivotValue) {
+                    swap(array, lt++, scan++);
+                } else {
+                    count++;
+                    if (value > pivotValue) {
+                        swap(array, scan, --gt);
+                    } else {
+                        scan++;
+                    }
+                }
+            }
+            if (SortStats.ENABLED)
+                // Every value outside the equal block was swapped once
+                stats.swaps += (lt - start) + (end - gt);
+            lessEnd = lt;
+            greaterStart = gt;
+        }
+
+        private int choosePivot(int start, int end) {
+            int last = end - 1;
+            int mid = (start + last) >>> 1;
+            if (end - start <= NINTHER_SIZE) {
+                return medianOfThree(start, mid, last);
+            }
+            // Tukey's ninther, the median of three medians of three
+            int step = (end - start) / 8;
+            int a = medianOfThree(start, start + step, start + 2 * step);
+            int b = medianOfThree(mid - step, mid, mid + step);
+            int c = medianOfThree(last - 2 * step, last - step, last);
+            return medianOfThree(a, b, c);
+        }
+
+        private int medianOfThree(int a, int b, int c) {
+            count += 2;
+            if (array[a] < array[b]) {
+                if (array[b] < array[c]) {
+                    return b;
+                }
+                count++;
+                return array[a] < array[c] ? c : a;
+            }
+            if (array[a] < array[c]) {
+                return a;
+            }
+            count++;
+            return array[b] < array[c] ? c : b;
+        }
+
+        private void heapSort(int start, int end) {
+            int n = end - start;
+            for (int i = n / 2 - 1; i >= 0; i--) {
+                siftDown(start, i, n);
+            }
+            for (int i = n - 1; i > 0; i--) {
+                swap(array, start, start + i);
+                siftDown(start, 0, i);
+            }
+            if (SortStats.ENABLED)
+                stats.swaps += Math.max(n - 1, 0);
+        }
+
+        private void siftDown(int start, int root, int n) {
+            int value = array[start + root];
+            int child;
+            while ((child = 2 * root + 1) < n) {
+                if (child + 1 < n) {
+                    count++;
+                    if (array[start + child + 1] > array[start + child]) {
+                        child++;
+                    }
+                }
+                count++;
+                if (array[start + child] <= value) {
+                    break;
+                }
+                array[start + root] = array[start + child];
+                root = child;
+                if (SortStats.ENABLED)
+                    stats.moves++;
+            }
+            array[start + root] = value;
+            if (SortStats.ENABLED)
+                stats.moves++;
+        }
+    }
+
+    /**
+     * ---------------------------- Selection and Top K ---------------------------------------
+     * For when only the k smallest or largest values are needed. nthElement and partialSort
+     * are quickselect on a three way version of part1, expected O(n) and O(n + k log k),
+     * and TopK keeps the k largest values of a stream in a bounded heap, O(n log k).
+     */
+
+    /**
+     * Rearranges the array so array[k] holds the value it would hold if the array were sorted,
+     * every value before it is less than or equal to it and every value after it is greater
+     * than or equal to it. nthElement(array, array.length / 2) finds the median.
+     *
+     * @param array The array to rearrange.
+     * @param k The index to select, 0 is the smallest value.
+     * @return The number of comparisons made.
+     */
+    public static long nthElement(int[] array, int k) {
+        return nthElement(array, k, SortStats.ignored());
+    }
+
+    public static long nthElement(int[] array, int k, SortStats stats) {
+        if (k < 0 || k >= array.length) {
+            throw new IllegalArgumentException("k must be in [0, " + array.length + "): " + k);
+        }
+        long count = select(array, 0, array.length, k, stats);
+        if (SortStats.ENABLED)
+            stats.compares += count;
+        return count;
+    }
+
+    /**
+     * Moves the k smallest values to the front of the array in ascending order. The order of
+     * the rest of the array is unspecified.
+     *
+     * @param array The array to rearrange.
+     * @param k The number of values to sort, from 0 to array.length.
+     * @return The number of comparisons made.
+     */
+    public static long partialSort(int[] array, int k) {
+        return partialSort(array, k, SortStats.ignored());
+    }
+
+    public static long partialSort(int[] array, int k, SortStats stats) {
+        if (k < 0 || k > array.length) {
+            throw new IllegalArgumentException("k must be in [0, " + array.length + "]: " + k);
+        }
+        long count = 0;
+        if (k < array.length) {
+            // Split off the k smallest, then only they need sorting
+            count += select(array, 0, array.length, k, stats);
+        }
+        if (k > 1) {
+            QuickTask task = new QuickTask(array, 0, k, 2 * (31 - Integer.numberOfLeadingZeros(k)), 1);
+            count += ForkJoinPool.commonPool().invoke(task);
+            if (SortStats.ENABLED)
+                stats.add(task.stats);
+        }
+        if (SortStats.ENABLED)
+            stats.compares += count;
+        return count;
+    }
+
+    /**
+     * Finds the k largest values of an array without changing it
+     *
+     * @param array The values to search.
+     * @param k The number of values to return, from 0 to array.length.
+     * @return The k largest values, largest first.
+     */
+    public static int[] topK(int[] array, int k) {
+        if (k < 0 || k > array.length) {
+            throw new IllegalArgumentException("k must be in [0, " + array.length + "]: " + k);
+        }
+        TopK top = new TopK(k);
+        top.addAll(array, 0, array.length);
+        return top.toArray();
+    }
+
+    /**
+     * Quickselect of array[start..end). Narrows the range to the side of each partition that
+     * holds k until k lands in the run of values equal to the pivot. A range that takes more
+     * than 2 log2(n) partitions is finished with introQuickSort's engine, so the worst case is
+     * O(n log n) instead of part1's O(n^2).
+     *
+     * @return The number of comparisons made.
+     */
+    private static long select(int[] array, int start, int end, int k, SortStats stats) {
+        long count = 0;
+        int depth = 2 * (31 - Integer.numberOfLeadingZeros(end - start));
+        int level = 1;
+        while (end - start > INTRO_INSERTION_CUTOFF) {
+            if (SortStats.ENABLED)
+                stats.depth(level++);
+            if (depth-- == 0) {
+                QuickTask task = new QuickTask(array, start, end, 0, level);
+                count += ForkJoinPool.commonPool().invoke(task);
+                if (SortStats.ENABLED)
+                    stats.add(task.stats);
+                return count;
+            }
+            count += moveMedianToMiddle(array, start, end - 1);
+            long bounds = part3(array, start, end, stats);
+            int lessEnd = (int) (bounds >>> 32);
+            int greaterStart = (int) bounds;
+            // Every value but the pivot is compared once, and again if it is not less
+            count += 2L * (end - start - 1) - (lessEnd - start);
+            if (k < lessEnd) {
+                end = lessEnd;
+            } else if (k >= greaterStart) {
+                start = greaterStart;
+            } else {
+                // k is inside the run equal to the pivot
+                return count;
+            }
+        }
+        return count + insertionSortRange(array, start, end, stats);
+    }
+
+    /**
+     * Swaps the median of the first, middle and last values into the middle, where part1
+     * and part3 take their pivot from
+     *
+     * @return The number of comparisons made.
+     */
+    private static int moveMedianToMiddle(int[] array, int first, int last) {
+        int mid = (first + last) / 2;
+        if (array[mid] < array[first]) {
+            swap(array, mid, first);
+        }
+        if (array[last] < array[mid]) {
+            swap(array, last, mid);
+            if (array[mid] < array[first]) {
+                swap(array, mid, first);
+            }
+            return 3;
+        }
+        return 2;
+    }
+
+    /**
+     * part1 with a third sub list. The middle value is the pivot and the scan moves the values
+     * less than it to the left as part1 does, while values greater than it are swapped to the
+     * right end, so values equal to the pivot end up together in the middle. Without that an
+     * array of equal values would shrink by one element per partition.
+     *
+     * @param array The array to partition.
+     * @param start The starting subscript of the area to partition.
+     * @param end The subscript after the area to partition.
+     * @param stats Counters to add the swaps to.
+     * @return The end of the less than list in the high 32 bits and the start of the greater
+     *         than list in the low 32 bits.
+     */
+    private static long part3(int[] array, int start, int end, SortStats stats) {
+        // Move the pivot to the start like part1 does
+        swap(array, start, (start + end - 1) / 2);
+        int pivotValue = array[start];
+        int endOfLeftList = start;  // Last value of the less than list, the pivot for now
+        int startOfRightList = end; // First value of the greater than list
+        int scan = start + 1;
+        while (scan < startOfRightList) {
+            int value = array[scan];
+            if (value < pivotValue) {
+                endOfLeftList++;
+                swap(array, endOfLeftList, scan);
+                scan++;
+            } else if (value > pivotValue) {
+                startOfRightList--;
+                swap(array, startOfRightList, scan);
+            } else {
+                scan++;
+            }
+        }
+        // Move the pivot to the end of the left sub list, it then starts the equal run
+        swap(array, start, endOfLeftList);
+        if (SortStats.ENABLED)
+            stats.swaps += (endOfLeftList - start) + (end - startOfRightList) + 2;
+        return ((long) endOfLeftList << 32) | startOfRightList;
+    }
+
+    /**
+     * Keeps the k largest values seen in a stream, in a min heap of k ints so the smallest kept
+     * value is the one to compare new values with. Adding a value costs one comparison when it
+     * is too small to keep and O(log k) when it replaces the smallest.
+     */
+    public static final class TopK {
+        private final int[] heap;
+        private int size;
+        private long comparisons;
+
+        /**
+         * @param k The number of values to keep, 0 or more.
+         */
+        public TopK(int k) {
+            if (k < 0) {
+                throw new IllegalArgumentException("k must not be negative: " + k);
+            }
+            heap = new int[k];
+        }
+
+        /**
+         * Offers a value to the heap
+         * @param value The next value of the stream.
+         */
+        public void add(int value) {
+            if (size < heap.length) {
+                // Not full yet, sift the value up from the bottom
+                int child = size++;
+                while (child > 0) {
+                    int parent = (child - 1) >>> 1;
+                    comparisons++;
+                    if (heap[parent] <= value) {
+                        break;
+                    }
+                    heap[child] = heap[parent];
+                    child = parent;
+                }
+                heap[child] = value;
+                return;
+            }
+            if (heap.length == 0) {
+                return;
+            }
+            comparisons++;
+            if (value > heap[0]) {
+                comparisons += siftDown(heap, value, size);
+            }
+        }
+
+        /**
+         * Offers array[from..to) to the heap
+         */
+        public void addAll(int[] array, int from, int to) {
+            for (int i = from; i < to; i++) {
+                add(array[i]);
+            }
+        }
+
+        /**
+         * Offers every value left in a cursor to the heap
+         */
+        public void addAll(IntCursor cursor) {
+            while (cursor.hasNext()) {
+                add(cursor.next());
+            }
+        }
+
+        /**
+         * @return The number of values kept, k once k values have been added.
+         */
+        public int size() {
+            return size;
+        }
+
+        /**
+         * @return The smallest value kept, new values must be greater to be kept.
+         */
+        public int threshold() {
+            if (size == 0) {
+                throw new NoSuchElementException();
+            }
+            return heap[0];
+        }
+
+        /**
+         * @return The number of comparisons made so far.
+         */
+        public long comparisons() {
+            return comparisons;
+        }
+
+        /**
+         * @return The values kept, largest first. The heap is left as it is so the stream can go on.
+         */
+        public int[] toArray() {
+            int[] result = Arrays.copyOf(heap, size);
+            // Heap sort the copy, taking the smallest value off a min heap each time leaves
+            // the values in descending order
+            for (int last = size - 1; last > 0; last--) {
+                int value = result[last];
+                result[last] = result[0];
+                comparisons += siftDown(result, value, last);
+            }
+            return result;
+        }
+
+        /**
+         * Puts value at the root of heap[0..n) and sifts it down
+         * @return The number of comparisons made.
+         */
+        private static long siftDown(int[] heap, int value, int n) {
+            long count = 0;
+            int root = 0;
+            int child;
+            while ((child = 2 * root + 1) < n) {
+                if (child + 1 < n) {
+                    count++;
+                    if (heap[child + 1] < heap[child]) {
+                        child++;
+                    }
+                }
+                count++;
+                if (value <= heap[child]) {
+                    break;
+                }
+                heap[root] = heap[child];
+                root = child;
+            }
+            heap[root] = value;
+            return count;
+        }
+    }
+
+    /**
+     * ---------------------------- Primitive Variants ---------------------------------------
+     * Merge, quick and radix sorts for long[], double[] and int keys carrying an int[] of values.
+     * double[] is sorted in the order of Double.compare, -0.0 before 0.0 and NaN last.
+     */
+
+    // Ranges at or below this size are insertion sorted by the primitive merge and quick sorts
+    private static final int PRIMITIVE_INSERTION_CUTOFF = 24;
+
+    /**
+     * Scratch space for the primitive sorts. Keep one per thread and pass it to every call,
+     * once the buffers have grown to the largest array sorted no further sort allocates.
+     */
+    public static final class SortBuffers {
+        private long[] longs = new long[0];
+        private double[] doubles = new double[0];
+        private int[] keys = new int[0];
+        private int[] values = new int[0];
+        private int[] queryKeys = new int[0];
+        private int[] queryPositions = new int[0];
+        private int[] sortKeys = new int[0];
+        private long[] visited = new long[0];
+        private final int[] histograms = new int[Long.SIZE / RADIX_BITS * RADIX_BUCKETS];
+
+        /**
+         * Grows every buffer up front so the first sorts of up to n elements do not allocate either.
+         *
+         * @param n The largest array length that will be sorted.
+         */
+        public void ensureCapacity(int n) {
+            longs(n);
+            doubles(n);
+            keys(n);
+            values(n);
+            queryKeys(n);
+            queryPositions(n);
+            sortKeys(n);
+            visited(n);
+        }
+
+        private long[] longs(int n) {
+            if (longs.length < n) {
+                longs = new long[n];
+            }
+            return longs;
+        }
+
+        private double[] doubles(int n) {
+            if (doubles.length < n) {
+                doubles = new double[n];
+            }
+            return doubles;
+        }
+
+        private int[] keys(int n) {
+            if (keys.length < n) {
+                keys = new int[n];
+            }
+            return keys;
+        }
+
+        private int[] values(int n) {
+            if (values.length < n) {
+                values = new int[n];
+            }
+            return values;
+        }
+
+        // The batch searches sort the first n of these
+        private int[] queryKeys(int n) {
+            if (queryKeys.length < n) {
+                queryKeys = new int[n];
+            }
+            return queryKeys;
+        }
+
+        private int[] queryPositions(int n) {
+            if (queryPositions.length < n) {
+                queryPositions = new int[n];
+            }
+            return queryPositions;
+        }
+
+        // The key column sortPermutation sorts the permutation by
+        private int[] sortKeys(int n) {
+            if (sortKeys.length < n) {
+                sortKeys = new int[n];
+            }
+            return sortKeys;
+        }
+
+        // Bitset of the indexes applyPermutation has visited, returned clear
+        private long[] visited(int n) {
+            int words = bitsetWords(n);
+            if (visited.length < words) {
+                visited = new long[words];
+            } else {
+                Arrays.fill(visited, 0, words, 0);
+            }
+            return visited;
+        }
+
+        private int[] histograms(int passes) {
+            Arrays.fill(histograms, 0, passes * RADIX_BUCKETS, 0);
+            return histograms;
+        }
+    }
+
+    /**
+     * Maps a double to a long with the same order as Double.compare. Negative values have all
+     * but the sign bit flipped so that larger magnitudes come first.
+     */
+    private static long sortableBits(double value) {
+        long bits = Double.doubleToLongBits(value);
+        return bits ^ ((bits >> 63) & Long.MAX_VALUE);
+    }
+
+    private static boolean doubleLess(double a, double b) {
+        return sortableBits(a) < sortableBits(b);
+    }
+
+    private static void checkKeysAndValues(int[] keys, int[] values) {
+        if (values.length != keys.length) {
+            throw new IllegalArgumentException("keys and values must be the same length");
+        }
+    }
+
+    // ---------- long[] ----------
+
+    /**
+     * Stable merge sort of a long array.
+     *
+     * @param array The array to sort.
+     * @param buffers Scratch space supplied by the caller.
+     * @return The number of comparisons made.
+     */
+    public static long mergeSort(long[] array, SortBuffers buffers) {
+        long[] workingArray = buffers.longs(array.length);
+        System.arraycopy(array, 0, workingArray, 0, array.length);
+        return doMergeSort(workingArray, array, 0, array.length);
+    }
+
+    // Sorts src[lower..higher) into dst[lower..higher), the roles swap on every level
+    private static long doMergeSort(long[] src, long[] dst, int lower, int higher) {
+        if (higher - lower <= PRIMITIVE_INSERTION_CUTOFF) {
+            return insertionSortRange(dst, lower, higher);
+        }
+        int middle = lower + (higher - lower) / 2;
+        long count = doMergeSort(dst, src, lower, middle);
+        count += doMergeSort(dst, src, middle, higher);
+        count++;
+        if (src[middle - 1] <= src[middle]) {
+            System.arraycopy(src, lower, dst, lower, higher - lower);
+            return count;
+        }
+        int i1 = lower;
+        int i2 = middle;
+        int newIndex = lower;
+        while (i1 < middle && i2 < higher) {
+            count++;
+            dst[newIndex++] = src[i1] <= src[i2] ? src[i1++] : src[i2++];
+        }
+        System.arraycopy(src, i1, dst, newIndex, middle - i1);
+        System.arraycopy(src, i2, dst, newIndex + middle - i1, higher - i2);
+        return count;
+    }
+
+    /**
+     * Quick sort of a long array with a median of three pivot, a three way partition and a
+     * heap sort fallback once the recursion gets too deep.
+     *
+     * @param array The array to sort.
+     * @return The number of comparisons made.
+     */
+    public static long quickSort(long[] array) {
+        return doQuickSort(array, 0, array.length, 2 * (32 - Integer.numberOfLeadingZeros(array.length)));
+    }
+
+    private static long doQuickSort(long[] array, int start, int end, int depth) {
+        long count = 0;
+        while (end - start > PRIMITIVE_INSERTION_CUTOFF) {
+            if (depth-- == 0) {
+                return count + heapSort(array, start, end);
+            }
+            long a = array[start];
+            long b = array[(start + end) >>> 1];
+            long c = array[end - 1];
+            long pivotValue = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            count += 3;
+            int lt = start;
+            int scan = start;
+            int gt = end;
+            while (scan < gt) {
+                long value = array[scan];
+                count++;
+                if (value < pivotValue) {
+                    array[scan++] = array[lt];
+                    array[lt++] = value;
+                } else {
+                    count++;
+                    if (value > pivotValue) {
+                        array[scan] = array[--gt];
+                        array[gt] = value;
+                    } else {
+                        scan++;
+                    }
+                }
+            }
+            // Recurse on the smaller side so the stack stays O(log n)
+            if (lt - start < end - gt) {
+                count += doQuickSort(array, start, lt, depth);
+                start = gt;
+            } else {
+                count += doQuickSort(array, gt, end, depth);
+                end = lt;
+            }
+        }
+        return count + insertionSortRange(array, start, end);
+    }
+
+    /**
+     * LSD radix sort of a long array, eight passes of eight bits.
+     *
+     * @param array The array to sort.
+     * @param buffers Scratch space supplied by the caller.
+     * @return The number of assignments made.
+     */
+    public static long radixSort(long[] array, SortBuffers buffers) {
+        int n = array.length;
+        if (n < 2) {
+            return 0;
+        }
+        int passes = Long.SIZE / RADIX_BITS;
+        int[] histograms = buffers.histograms(passes);
+        for (long value : array) {
+            long key = value ^ Long.MIN_VALUE; // Flip the sign bit so negatives come first
+            for (int pass = 0; pass < passes; pass++) {
+                histograms[pass * RADIX_BUCKETS + ((int) (key >>> (pass * RADIX_BITS)) & (RADIX_BUCKETS - 1))]++;
+            }
+        }
+        long counter = 0;
+        long[] src = array;
+        long[] dst = buffers.longs(n);
+        for (int pass = 0; pass < passes; pass++) {
+            int shift = pass * RADIX_BITS;
+            int base = pass * RADIX_BUCKETS;
+            if (!prefixSum(histograms, base, n)) {
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                long value = src[i];
+                dst[histograms[base + ((int) ((value ^ Long.MIN_VALUE) >>> shift) & (RADIX_BUCKETS - 1))]++] = value;
+            }
+            counter += n;
+            long[] temp = src;
+            src = dst;
+            dst = temp;
+        }
+        if (src != array) {
+            System.arraycopy(src, 0, array, 0, n);
+            counter += n;
+        }
+        return counter;
+    }
+
+    // ---------- double[] ----------
+
+    /**
+     * Stable merge sort of a double array.
+     *
+     * @param array The array to sort.
+     * @param buffers Scratch space supplied by the caller.
+     * @return The number of comparisons made.
+     */
+    public static long mergeSort(double[] array, SortBuffers buffers) {
+        double[] workingArray = buffers.doubles(array.length);
+        System.arraycopy(array, 0, workingArray, 0, array.length);
+        return doMergeSort(workingArray, array, 0, array.length);
+    }
+
+    private static long doMergeSort(double[] src, double[] dst, int lower, int higher) {
+        if (higher - lower <= PRIMITIVE_INSERTION_CUTOFF) {
+            return insertionSortRange(dst, lower, higher);
+        }
+        int middle = lower + (higher - lower) / 2;
+        long count = doMergeSort(dst, src, lower, middle);
+        count += doMergeSort(dst, src, middle, higher);
+        count++;
+        if (!doubleLess(src[middle], src[middle - 1])) {
+            System.arraycopy(src, lower, dst, lower, higher - lower);
+            return count;
+        }
+        int i1 = lower;
+        int i2 = middle;
+        int newIndex = lower;
+        while (i1 < middle && i2 < higher) {
+            count++;
+            dst[newIndex++] = doubleLess(src[i2], src[i1]) ? src[i2++] : src[i1++];
+        }
+        System.arraycopy(src, i1, dst, newIndex, middle - i1);
+        System.arraycopy(src, i2, dst, newIndex + middle - i1, higher - i2);
+        return count;
+    }
+
+    /**
+     * Quick sort of a double array, see quickSort(long[]).
+     *
+     * @param array The array to sort.
+     * @return The number of comparisons made.
+     */
+    public static long quickSort(double[] array) {
+        return doQuickSort(array, 0, array.length, 2 * (32 - Integer.numberOfLeadingZeros(array.length)));
+    }
+
+    private static long doQuickSort(double[] array, int start, int end, int depth) {
+        long count = 0;
+        while (end - start > PRIMITIVE_INSERTION_CUTOFF) {
+            if (depth-- == 0) {
+                return count + heapSort(array, start, end);
+            }
+            long a = sortableBits(array[start]);
+            long b = sortableBits(array[(start + end) >>> 1]);
+            long c = sortableBits(array[end - 1]);
+            long pivotKey = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            count += 3;
+            int lt = start;
+            int scan = start;
+            int gt = end;
+            while (scan < gt) {
+                double value = array[scan];
+                long key = sortableBits(value);
+                count++;
+                if (key < pivotKey) {
+                    array[scan++] = array[lt];
+                    array[lt++] = value;
+                } else {
+                    count++;
+                    if (key > pivotKey) {
+                        array[scan] = array[--gt];
+                        array[gt] = value;
+                    } else {
+                        scan++;
+                    }
+                }
+            }
+            if (lt - start < end - gt) {
+                count += doQuickSort(array, start, lt, depth);
+                start = gt;
+            } else {
+                count += doQuickSort(array, gt, end, depth);
+                end = lt;
+            }
+        }
+        return count + insertionSortRange(array, start, end);
+    }
+
+    /**
+     * LSD radix sort of a double array on the bits from sortableBits, eight passes of eight bits.
+     *
+     * @param array The array to sort.
+     * @param buffers Scratch space supplied by the caller.
+     * @return The number of assignments made.
+     */
+    public static long radixSort(double[] array, SortBuffers buffers) {
+        int n = array.length;
+        if (n < 2) {
+            return 0;
+        }
+        int passes = Long.SIZE / RADIX_BITS;
+        int[] histograms = buffers.histograms(passes);
+        for (double value : array) {
+            long key = sortableBits(value) ^ Long.MIN_VALUE;
+            for (int pass = 0; pass < passes; pass++) {
+                histograms[pass * RADIX_BUCKETS + ((int) (key >>> (pass * RADIX_BITS)) & (RADIX_BUCKETS - 1))]++;
+            }
+        }
+        long counter = 0;
+        double[] src = array;
+        double[] dst = buffers.doubles(n);
+        for (int pass = 0; pass < passes; pass++) {
+            int shift = pass * RADIX_BITS;
+            int base = pass * RADIX_BUCKETS;
+            if (!prefixSum(histograms, base, n)) {
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                double value = src[i];
+                long key = sortableBits(value) ^ Long.MIN_VALUE;
+                dst[histograms[base + ((int) (key >>> shift) & (RADIX_BUCKETS - 1))]++] = value;
+            }
+            counter += n;
+            double[] temp = src;
+            src = dst;
+            dst = temp;
+        }
+        if (src != array) {
+            System.arraycopy(src, 0, array, 0, n);
+            counter += n;
+        }
+        return counter;
+    }
+
+    // ---------- int keys with int values ----------
+
+    /**
+     * Stable merge sort of keys, moving values[i] along with keys[i].
+     *
+     * @param keys The keys to sort by.
+     * @param values The values that follow their keys, same length as keys.
+     * @param buffers Scratch space supplied by the caller.
+     * @return The number of comparisons made.
+     */
+    public static long mergeSort(int[] keys, int[] values, SortBuffers buffers) {
+        checkKeysAndValues(keys, values);
+        return mergeSort(keys, values, keys.length, buffers);
+    }
+
+    /**
+     * Stable merge sort of keys[0..n), moving values[0..n) along, so a buffer longer than the
+     * data can be sorted.
+     */
+    private static long mergeSort(int[] keys, int[] values, int n, SortBuffers buffers) {
+        int[] workingKeys = buffers.keys(n);
+        int[] workingValues = buffers.values(n);
+        System.arraycopy(keys, 0, workingKeys, 0, n);
+        System.arraycopy(values, 0, workingValues, 0, n);
+        return doMergeSort(workingKeys, workingValues, keys, values, 0, n);
+    }
+
+    private static long doMergeSort(int[] srcKeys, int[] srcValues, int[] dstKeys, int[] dstValues,
+                                    int lower, int higher) {
+        if (higher - lower <= PRIMITIVE_INSERTION_CUTOFF) {
+            return insertionSortRange(dstKeys, dstValues, lower, higher);
+        }
+        int middle = lower + (higher - lower) / 2;
+        long count = doMergeSort(dstKeys, dstValues, srcKeys, srcValues, lower, middle);
+        count += doMergeSort(dstKeys, dstValues, srcKeys, srcValues, middle, higher);
+        count++;
+        if (srcKeys[middle - 1] <= srcKeys[middle]) {
+            System.arraycopy(srcKeys, lower, dstKeys, lower, higher - lower);
+            System.arraycopy(srcValues, lower, dstValues, lower, higher - lower);
+            return count;
+        }
+        int i1 = lower;
+        int i2 = middle;
+        int newIndex = lower;
+        while (i1 < middle && i2 < higher) {
+            count++;
+            if (srcKeys[i1] <= srcKeys[i2]) {
+                dstKeys[newIndex] = srcKeys[i1];
+                dstValues[newIndex++] = srcValues[i1++];
+            } else {
+                dstKeys[newIndex] = srcKeys[i2];
+                dstValues[newIndex++] = srcValues[i2++];
+            }
+        }
+        System.arraycopy(srcKeys, i1, dstKeys, newIndex, middle - i1);
+        System.arraycopy(srcValues, i1, dstValues, newIndex, middle - i1);
+        newIndex += middle - i1;
+        System.arraycopy(srcKeys, i2, dstKeys, newIndex, higher - i2);
+        System.arraycopy(srcValues, i2, dstValues, newIndex, higher - i2);
+        return count;
+    }
+
+    /**
+     * Quick sort of keys, moving values[i] along with keys[i]. Not stable.
+     *
+     * @param keys The keys to sort by.
+     * @param values The values that follow their keys, same length as keys.
+     * @return The number of comparisons made.
+     */
+    public static long quickSort(int[] keys, int[] values) {
+        checkKeysAndValues(keys, values);
+        return doQuickSort(keys, values, 0, keys.length, 2 * (32 - Integer.numberOfLeadingZeros(keys.length)));
+    }
+
+    private static long doQuickSort(int[] keys, int[] values, int start, int end, int depth) {
+        long count = 0;
+        while (end - start > PRIMITIVE_INSERTION_CUTOFF) {
+            if (depth-- == 0) {
+                return count + heapSort(keys, values, start, end);
+            }
+            int a = keys[start];
+            int b = keys[(start + end) >>> 1];
+            int c = keys[end - 1];
+            int pivotValue = Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+            count += 3;
+            int lt = start;
+            int scan = start;
+            int gt = end;
+            while (scan < gt) {
+                int key = keys[scan];
+                count++;
+                if (key < pivotValue) {
+                    swap(keys, lt, scan);
+                    swap(values, lt++, scan++);
+                } else {
+                    count++;
+                    if (key > pivotValue) {
+                        swap(keys, scan, --gt);
+                        swap(values, scan, gt);
+                    } else {
+                        scan++;
+                    }
+                }
+            }
+            if (lt - start < end - gt) {
+                count += doQuickSort(keys, values, start, lt, depth);
+                start = gt;
+            } else {
+                count += doQuickSort(keys, values, gt, end, depth);
+                end = lt;
+            }
+        }
+        return count + insertionSortRange(keys, values, start, end);
+    }
+
+    /**
+     * Stable LSD radix sort of keys, moving values[i] along with keys[i].
+     *
+     * @param keys The keys to sort by.
+     * @param values The values that follow their keys, same length as keys.
+     * @param buffers Scratch space supplied by the caller.
+     * @return The number of assignments made.
+     */
+    public static long radixSort(int[] keys, int[] values, SortBuffers buffers) {
+        checkKeysAndValues(keys, values);
+        return radixSort(keys, values, keys.length, buffers);
+    }
+
+    /**
+     * Stable LSD radix sort of keys[0..n), moving values[0..n) along, so a buffer longer than
+     * the data can be sorted.
+     */
+    private static long radixSort(int[] keys, int[] values, int n, SortBuffers buffers) {
+        if (n < 2) {
+            return 0;
+        }
+        int[] histograms = buffers.histograms(RADIX_PASSES);
+        for (int i = 0; i < n; i++) {
+            int key = keys[i];
+            for (int pass = 0; pass < RADIX_PASSES; pass++) {
+                histograms[pass * RADIX_BUCKETS + radixDigit(key, pass * RADIX_BITS)]++;
+            }
+        }
+        long counter = 0;
+        int[] srcKeys = keys;
+        int[] srcValues = values;
+        int[] dstKeys = buffers.keys(n);
+        int[] dstValues = buffers.values(n);
+        for (int pass = 0; pass < RADIX_PASSES; pass++) {
+            int shift = pass * RADIX_BITS;
+            int base = pass * RADIX_BUCKETS;
+            if (!prefixSum(histograms, base, n)) {
+                continue;
+            }
+            for (int i = 0; i < n; i++) {
+                int position = histograms[base + radixDigit(srcKeys[i], shift)]++;
+                dstKeys[position] = srcKeys[i];
+                dstValues[position] = srcValues[i];
+            }
+            counter += 2L * n;
+            int[] temp = srcKeys;
+            srcKeys = dstKeys;
+            dstKeys = temp;
+            temp = srcValues;
+            srcValues = dstValues;
+            dstValues = temp;
+        }
+        if (srcKeys != keys) {
+            System.arraycopy(srcKeys, 0, keys, 0, n);
+            System.arraycopy(srcValues, 0, values, 0, n);
+            counter += 2L * n;
+        }
+        return counter;
+    }
+
+    // ---------- shared helpers ----------
+
+    /**
+     * Turns the counts of one radix pass into starting offsets, in place.
+     *
+     * @return false if every value falls in one bucket, so the pass can be skipped.
+     */
+    private static boolean prefixSum(int[] histograms, int base, int n) {
+        int sum = 0;
+        for (int digit = 0; digit < RADIX_BUCKETS; digit++) {
+            int bucket = histograms[base + digit];
+            if (bucket == n) {
+                return false;
+            }
+            histograms[base + digit] = sum;
+            sum += bucket;
+        }
+        return true;
+    }
+
+    private static long insertionSortRange(long[] array, int lower, int higher) {
+        long count = 0;
+        for (int index = lower + 1; index < higher; index++) {
+            long unsortedValue = array[index];
+            int scan = index;
+            while (scan > lower) {
+                count++;
+                if (array[scan - 1] <= unsortedValue) {
+                    break;
+                }
+                array[scan] = array[scan - 1];
+                scan--;
+            }
+            array[scan] = unsortedValue;
+        }
+        return count;
+    }
+
+    private static long insertionSortRange(double[] array, int lower, int higher) {
+        long count = 0;
+        for (int index = lower + 1; index < higher; index++) {
+            double unsortedValue = array[index];
+            int scan = index;
+            while (scan > lower) {
+                count++;
+                if (!doubleLess(unsortedValue, array[scan - 1])) {
+                    break;
+                }
+                array[scan] = array[scan - 1];
+                scan--;
+            }
+            array[scan] = unsortedValue;
+        }
+        return count;
+    }
+
+    private static long insertionSortRange(int[] keys, int[] values, int lower, int higher) {
+        long count = 0;
+        for (int index = lower + 1; index < higher; index++) {
+            int unsortedKey = keys[index];
+            int unsortedValue = values[index];
+            int scan = index;
+            while (scan > lower) {
+                count++;
+                if (keys[scan - 1] <= unsortedKey) {
+                    break;
+                }
+                keys[scan] = keys[scan - 1];
+                values[scan] = values[scan - 1];
+                scan--;
+            }
+            keys[scan] = unsortedKey;
+            values[scan] = unsortedValue;
+        }
+        return count;
+    }
+
+    private static long heapSort(long[] array, int start, int end) {
+        long count = 0;
+        int n = end - start;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            count += siftDown(array, start, i, n);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            long temp = array[start];
+            array[start] = array[start + i];
+            array[start + i] = temp;
+            count += siftDown(array, start, 0, i);
+        }
+        return count;
+    }
+
+    private static long siftDown(long[] array, int start, int root, int n) {
+        long count = 0;
+        long value = array[start + root];
+        int child;
+        while ((child = 2 * root + 1) < n) {
+            if (child + 1 < n) {
+                count++;
+                if (array[start + child + 1] > array[start + child]) {
+                    child++;
+                }
+            }
+            count++;
+            if (array[start + child] <= value) {
+                break;
+            }
+            array[start + root] = array[start + child];
+            root = child;
+        }
+        array[start + root] = value;
+        return count;
+    }
+
+    private static long heapSort(double[] array, int start, int end) {
+        long count = 0;
+        int n = end - start;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            count += siftDown(array, start, i, n);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            double temp = array[start];
+            array[start] = array[start + i];
+            array[start + i] = temp;
+            count += siftDown(array, start, 0, i);
+        }
+        return count;
+    }
+
+    private static long siftDown(double[] array, int start, int root, int n) {
+        long count = 0;
+        double value = array[start + root];
+        int child;
+        while ((child = 2 * root + 1) < n) {
+            if (child + 1 < n) {
+                count++;
+                if (doubleLess(array[start + child], array[start + child + 1])) {
+                    child++;
+                }
+            }
+            count++;
+            if (!doubleLess(value, array[start + child])) {
+                break;
+            }
+            array[start + root] = array[start + child];
+            root = child;
+        }
+        array[start + root] = value;
+        return count;
+    }
+
+    private static long heapSort(int[] keys, int[] values, int start, int end) {
+        long count = 0;
+        int n = end - start;
+        for (int i = n / 2 - 1; i >= 0; i--) {
+            count += siftDown(keys, values, start, i, n);
+        }
+        for (int i = n - 1; i > 0; i--) {
+            swap(keys, start, start + i);
+            swap(values, start, start + i);
+            count += siftDown(keys, values, start, 0, i);
+        }
+        return count;
+    }
+
+    private static long siftDown(int[] keys, int[] values, int start, int root, int n) {
+        long count = 0;
+        int key = keys[start + root];
+        int value = values[start + root];
+        int child;
+        while ((child = 2 * root + 1) < n) {
+            if (child + 1 < n) {
+                count++;
+                if (keys[start + child + 1] > keys[start + child]) {
+                    child++;
+                }
+            }
+            count++;
+            if (keys[start + child] <= key) {
+                break;
+            }
+            keys[start + root] = keys[start + child];
+            values[start + root] = values[start + child];
+            root = child;
+        }
+        keys[start + root] = key;
+        values[start + root] = value;
+        return count;
+    }
+
+    /**
+     * ---------------------------- Indirect Sort ---------------------------------------
+     * Sorts struct-of-arrays records without building objects. sortPermutation works out the
+     * order of the rows from their key columns, applyPermutation then moves each column into it.
+     */
+
+    // Below this many rows the permutation is built with the merge engine, above it with the radix engine
+    private static final int PERMUTATION_RADIX_SIZE = 256;
+
+    /**
+     * @param keys The key column.
+     * @return The stable sorting permutation: keys[p[0]] <= keys[p[1]] <= ..., and rows with equal
+     *         keys keep their order. keys is not changed.
+     */
+    public static int[] sortPermutation(int[] keys) {
+        int[] permutation = new int[keys.length];
+        sortPermutation(permutation, new SortBuffers(), keys);
+        return permutation;
+    }
+
+    /**
+     * Builds the stable permutation that sorts rows by several key columns, the first column
+     * first and each later column breaking the ties of the ones before it. The columns are
+     * sorted LSD style, last column first, each pass a stable sort of the permutation by that
+     * column, so the earlier columns have the final say.
+     *
+     * @param permutation Filled with the permutation, the same length as the columns.
+     * @param buffers Scratch space supplied by the caller, so repeated sorts do not allocate.
+     * @param keyColumns The key columns in order of priority, none of them are changed.
+     */
+    public static void sortPermutation(int[] permutation, SortBuffers buffers, int[]... keyColumns) {
+        if (keyColumns.length == 0) {
+            throw new IllegalArgumentException("At least one key column is needed");
+        }
+        int n = permutation.length;
+        for (int[] column : keyColumns) {
+            if (column.length != n) {
+                throw new IllegalArgumentException("Every key column must be as long as the permutation");
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            permutation[i] = i;
+        }
+        int[] sortKeys = buffers.sortKeys(n);
+        for (int c = keyColumns.length - 1; c >= 0; c--) {
+            int[] column = keyColumns[c];
+            // Gather the column in the current order, then sort the rows by it
+            for (int i = 0; i < n; i++) {
+                sortKeys[i] = column[permutation[i]];
+            }
+            if (n < PERMUTATION_RADIX_SIZE) {
+                mergeSort(sortKeys, permutation, n, buffers);
+            } else {
+                radixSort(sortKeys, permutation, n, buffers);
+            }
+        }
+    }
+
+    /**
+     * Puts a column in the order of a permutation, afterwards column[i] holds what was at
+     * column[permutation[i]]. Each cycle of the permutation is followed once with a single
+     * temporary, so no copy of the column is made. The permutation is checked before anything
+     * is moved, so an invalid one leaves the column as it was, and it is only ever read, so
+     * several threads can apply the same permutation at once. Visits are marked in a bitset
+     * allocated for the call, the SortBuffers overload takes it from the buffers instead.
+     *
+     * @param permutation A permutation of 0 to column.length - 1.
+     * @param column The column to reorder.
+     */
+    public static void applyPermutation(int[] permutation, int[] column) {
+        applyPermutation(permutation, new long[bitsetWords(permutation.length)], new Object[] {column});
+    }
+
+    public static void applyPermutation(int[] permutation, long[] column) {
+        applyPermutation(permutation, new long[bitsetWords(permutation.length)], new Object[] {column});
+    }
+
+    public static void applyPermutation(int[] permutation, double[] column) {
+        applyPermutation(permutation, new long[bitsetWords(permutation.length)], new Object[] {column});
+    }
+
+    /**
+     * Puts several parallel columns in the order of one permutation. The permutation is checked
+     * once, and each cycle is found once and then followed through every column in turn.
+     *
+     * @param permutation A permutation of 0 to n - 1, where n is the length of every column.
+     * @param buffers Scratch space for the visited bitset, one per thread.
+     * @param columns int[], long[] or double[] columns, all of them checked before any is moved.
+     */
+    public static void applyPermutation(int[] permutation, SortBuffers buffers, Object... columns) {
+        applyPermutation(permutation, buffers.visited(permutation.length), columns);
+    }
+
+    private static void applyPermutation(int[] permutation, long[] visited, Object[] columns) {
+        int n = permutation.length;
+        for (Object column : columns) {
+            int length = column instanceof int[] ints ? ints.length
+                    : column instanceof long[] longs ? longs.length
+                    : column instanceof double[] doubles ? doubles.length
+                    : -1;
+            if (length < 0) {
+                throw new IllegalArgumentException("Columns must be int[], long[] or double[]: "
+                        + (column == null ? "null" : column.getClass().getSimpleName()));
+            }
+            if (length != n) {
+                throw new IllegalArgumentException("The permutation and the columns must be the same length");
+            }
+        }
+        checkPermutation(permutation, visited);
+        for (int start = 0; start < n; start++) {
+            // Fixed points need no moves, and a cycle is marked when its lowest index is reached
+            if (permutation[start] == start || (visited[start >>> 6] & 1L << start) != 0) {
+                continue;
+            }
+            for (Object column : columns) {
+                if (column instanceof int[] ints) {
+                    moveCycle(permutation, ints, start);
+                } else if (column instanceof long[] longs) {
+                    moveCycle(permutation, longs, start);
+                } else {
+                    moveCycle(permutation, (double[]) column, start);
+                }
+            }
+            for (int j = permutation[start]; j != start; j = permutation[j]) {
+                visited[j >>> 6] |= 1L << j;
+            }
+        }
+    }
+
+    private static void moveCycle(int[] permutation, int[] column, int start) {
+        int temp = column[start];
+        int j = start;
+        for (int k = permutation[j]; k != start; k = permutation[j]) {
+            column[j] = column[k];
+            j = k;
+        }
+        column[j] = temp;
+    }
+
+    private static void moveCycle(int[] permutation, long[] column, int start) {
+        long temp = column[start];
+        int j = start;
+        for (int k = permutation[j]; k != start; k = permutation[j]) {
+            column[j] = column[k];
+            j = k;
+        }
+        column[j] = temp;
+    }
+
+    private static void moveCycle(int[] permutation, double[] column, int start) {
+        double temp = column[start];
+        int j = start;
+        for (int k = permutation[j]; k != start; k = permutation[j]) {
+            column[j] = column[k];
+            j = k;
+        }
+        column[j] = temp;
+    }
+
+    /**
+     * Checks that every index appears exactly once, using seen as a bitset that must start
+     * clear and is left clear.
+     */
+    private static void checkPermutation(int[] permutation, long[] seen) {
+        int n = permutation.length;
+        for (int j = 0; j < n; j++) {
+            int k = permutation[j];
+            if (k < 0 || k >= n || (seen[k >>> 6] & 1L << k) != 0) {
+                Arrays.fill(seen, 0, bitsetWords(n), 0);
+                throw new IllegalArgumentException("Not a permutation, the entry at index " + j + " repeats or is out of range");
+            }
+            seen[k >>> 6] |= 1L << k;
+        }
+        Arrays.fill(seen, 0, bitsetWords(n), 0);
+    }
+
+    private static int bitsetWords(int bits) {
+        return (bits + Long.SIZE - 1) >>> 6;
+    }
+
+    /**
+     * ---------------------------- External Sort ---------------------------------------
+     * Sorts a binary file of big endian 32 bit ints (the DataOutputStream format) that is larger
+     * than the heap. The file is read through memory mapped windows one chunk at a time, each
+     * chunk is sorted with the LSD radix passes and spilled to a temp file as a sorted run, then the runs
+     * are k-way merged with a primitive min-heap.
+     */
+
+    // Heap budget used when none is given on the command line
+    private static final long EXTERNAL_DEFAULT_HEAP = 256L << 20;
+    // Largest region mapped at once while reading the input
+    private static final int EXTERNAL_MAP_WINDOW = 1 << 28;
+    // Smallest read buffer given to each run during the merge
+    private static final int EXTERNAL_MIN_BUFFER = 64 << 10;
+    // Buffer the sorted runs are written through
+    private static final int EXTERNAL_WRITE_BUFFER = EXTERNAL_MIN_BUFFER * 16;
+
+    /**
+     * @param input Binary file of ints to sort.
+     * @param output File the sorted ints are written to, it is replaced if it exists.
+     * @param maxHeapBytes Heap the sort may use for its arrays and buffers. It must leave room for
+     *                     a 64 KB read buffer per run in the merge.
+     * @return The counts reported by the chunk sorts plus the comparisons made by the merge.
+     */
+    public static long externalSort(Path input, Path output, long maxHeapBytes) throws IOException {
+        long bytes = Files.size(input);
+        if (bytes % Integer.BYTES != 0) {
+            throw new IllegalArgumentException("Input length is not a whole number of ints: " + input);
+        }
+        // A chunk, the radix scratch buffer and the write buffer have to fit in the budget together
+        long chunkLimit = Math.min((maxHeapBytes - EXTERNAL_WRITE_BUFFER) / (2L * Integer.BYTES),
+                Integer.MAX_VALUE - 8);
+        if (chunkLimit < EXTERNAL_MIN_BUFFER / Integer.BYTES) {
+            throw new IllegalArgumentException("maxHeapBytes is too small: " + maxHeapBytes);
+        }
+        long total = bytes / Integer.BYTES;
+        int chunkSize = (int) Math.min(chunkLimit, total);
+        // The merge needs a read buffer of at least EXTERNAL_MIN_BUFFER per run plus one to write through
+        long runCount = total == 0 ? 0 : (total + chunkSize - 1) / chunkSize;
+        if (runCount > 1 && (runCount + 1) * EXTERNAL_MIN_BUFFER > maxHeapBytes) {
+            throw new IllegalArgumentException("maxHeapBytes is too small to merge the " + runCount
+                    + " runs of " + input + ": " + maxHeapBytes);
+        }
+        Path tempDir = output.toAbsolutePath().getParent();
+        List<Path> runs = new ArrayList<>();
+        long count = 0;
+        try (FileChannel in = FileChannel.open(input, StandardOpenOption.READ)) {
+            int[] chunk = new int[chunkSize];
+            int[] scratch = new int[chunkSize];
+            ByteBuffer writeBuffer = ByteBuffer.allocate(EXTERNAL_WRITE_BUFFER);
+            for (long position = 0; position < total; position += chunkSize) {
+                int length = (int) Math.min(chunkSize, total - position);
+                readInts(in, position, chunk, length);
+                // The LSD passes sort chunk[0..length) with the scratch already allocated. radixSort
+                // could pick the counting sort, whose count array is not part of the budget.
+                count += lsdRadixSort(chunk, length, scratch, SortStats.ignored());
+                if (length == total) {
+                    // Everything fitted in one chunk, no runs to merge
+                    writeInts(output, chunk, length, writeBuffer);
+                    return count;
+                }
+                Path run = Files.createTempFile(tempDir, "sortrun", ".bin");
+                runs.add(run);
+                writeInts(run, chunk, length, writeBuffer);
+            }
+        } catch (IOException | RuntimeException e) {
+            deleteRuns(runs);
+            throw e;
+        }
+        try {
+            return count + mergeRuns(runs, output, maxHeapBytes);
+        } finally {
+            deleteRuns(runs);
+        }
+    }
+
+    /**
+     * Reads length ints starting at int index position through mapped windows of the file.
+     */
+    private static void readInts(FileChannel in, long position, int[] chunk, int length) throws IOException {
+        int done = 0;
+        while (done < length) {
+            int window = Math.min(length - done, EXTERNAL_MAP_WINDOW / Integer.BYTES);
+            MappedByteBuffer mapped = in.map(FileChannel.MapMode.READ_ONLY,
+                    (position + done) * Integer.BYTES, (long) window * Integer.BYTES);
+            mapped.order(ByteOrder.BIG_ENDIAN).asIntBuffer().get(chunk, done, window);
+            done += window;
+        }
+    }
+
+    /**
+     * Writes array[0..length) to a file in large sequential writes.
+     */
+    private static void writeInts(Path file, int[] array, int length, ByteBuffer buffer) throws IOException {
+        try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            buffer.clear();
+            IntBuffer ints = buffer.asIntBuffer();
+            for (int i = 0; i < length; ) {
+                int batch = Math.min(ints.capacity(), length - i);
+                ints.clear();
+                ints.put(array, i, batch);
+                buffer.position(0).limit(batch * Integer.BYTES);
+                while (buffer.hasRemaining()) {
+                    out.write(buffer);
+                }
+                i += batch;
+            }
+        }
+    }
+
+    /**
+     * k-way merges the sorted runs into the output file. The heap budget is split evenly
+     * between one read buffer per run and the write buffer, and no buffer is made larger than
+     * the runs together.
+     *
+     * @return The number of comparisons made.
+     */
+    private static long mergeRuns(List<Path> runs, Path output, long maxHeapBytes) throws IOException {
+        int k = runs.size();
+        if (k == 0) {
+            // Empty input, the output is still replaced by an empty file
+            Files.write(output, new byte[0]);
+            return 0;
+        }
+        long runBytes = 0;
+        for (Path run : runs) {
+            runBytes += Files.size(run);
+        }
+        long share = Math.min(Math.max(EXTERNAL_MIN_BUFFER, maxHeapBytes / (k + 1)), runBytes);
+        int bufferSize = (int) Math.min(share, EXTERNAL_MAP_WINDOW) & -Integer.BYTES;
+        RunReader[] readers = new RunReader[k];
+        // The min-heap is kept as two parallel primitive arrays, the head value of a run and the run index
+        int[] heapValues = new int[k];
+        int[] heapRuns = new int[k];
+        int heapSize = 0;
+        long count = 0;
+        try (FileChannel out = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int run = 0; run < k; run++) {
+                readers[run] = new RunReader(runs.get(run), bufferSize);
+                if (readers[run].advance()) {
+                    heapValues[heapSize] = readers[run].value;
+                    heapRuns[heapSize] = run;
+                    heapSize++;
+                }
+            }
+            for (int i = heapSize / 2 - 1; i >= 0; i--) {
+                count += siftDownRuns(heapValues, heapRuns, i, heapSize);
+            }
+            ByteBuffer writeBuffer = ByteBuffer.allocate(bufferSize);
+            while (heapSize > 0) {
+                if (!writeBuffer.hasRemaining()) {
+                    writeFully(out, writeBuffer);
+                }
+                writeBuffer.putInt(heapValues[0]);
+                RunReader reader = readers[heapRuns[0]];
+                if (reader.advance()) {
+                    heapValues[0] = reader.value;
+                } else {
+                    // Run finished, move the last heap entry to the top
+                    heapSize--;
+                    heapValues[0] = heapValues[heapSize];
+                    heapRuns[0] = heapRuns[heapSize];
+                }
+                count += siftDownRuns(heapValues, heapRuns, 0, heapSize);
+            }
+            writeFully(out, writeBuffer);
+        } finally {
+            for (RunReader reader : readers) {
+                if (reader != null) {
+                    reader.channel.close();
+                }
+            }
+        }
+        return count;
+    }
+
+    private static long siftDownRuns(int[] heapValues, int[] heapRuns, int root, int heapSize) {
+        long count = 0;
+        int value = heapValues[root];
+        int run = heapRuns[root];
+        int child;
+        while ((child = 2 * root + 1) < heapSize) {
+            if (child + 1 < heapSize) {
+                count++;
+                if (heapValues[child + 1] < heapValues[child]) {
+                    child++;
+                }
+            }
+            count++;
+            if (heapValues[child] >= value) {
+                break;
+            }
+            heapValues[root] = heapValues[child];
+            heapRuns[root] = heapRuns[child];
+            root = child;
+        }
+        heapValues[root] = value;
+        heapRuns[root] = run;
+        return count;
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private static void deleteRuns(List<Path> runs) throws IOException {
+        for (Path run : runs) {
+            Files.deleteIfExists(run);
+        }
+    }
+
+    /**
+     * Reads one sorted run sequentially through its own buffer.
+     */
+    private static class RunReader {
+        private final FileChannel channel;
+        private final ByteBuffer buffer;
+        private int value; // The value read by the last successful advance()
+
+        RunReader(Path run, int bufferSize) throws IOException {
+            channel = FileChannel.open(run, StandardOpenOption.READ);
+            buffer = ByteBuffer.allocate(bufferSize);
+            buffer.flip(); // Start empty so the first advance() reads
+        }
+
+        /**
+         * Moves to the next value of the run.
+         *
+         * @return false when the run is used up.
+         */
+        boolean advance() throws IOException {
+            if (buffer.remaining() < Integer.BYTES) {
+                buffer.compact();
+                while (buffer.position() < Integer.BYTES) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                buffer.flip();
+            }
+            value = buffer.getInt();
+            return true;
+        }
+    }
+
+    /**
+     * ---------------------------- K-Way Merge ---------------------------------------
+     * Merges any number of already sorted inputs with a loser tree, so taking the next value
+     * costs about log2(k) comparisons. Output is produced on demand, the first values can be
+     * consumed after reading only the head of every input.
+     */
+
+    /**
+     * A sorted input of the k-way merge.
+     */
+    public interface IntCursor {
+        boolean hasNext();
+
+        int next();
+    }
+
+    /**
+     * Receives the values produced by a k-way merge.
+     */
+    public interface IntSink {
+        void accept(int value);
+    }
+
+    /**
+     * @param array A sorted array.
+     * @param from First index of the slice.
+     * @param to Index after the end of the slice.
+     * @return A cursor over array[from..to).
+     */
+    public static IntCursor cursor(int[] array, int from, int to) {
+        if (from < 0 || to > array.length || from > to) {
+            throw new IllegalArgumentException("Bad slice [" + from + ", " + to + ") of " + array.length);
+        }
+        return new IntCursor() {
+            private int index = from;
+
+            public boolean hasNext() {
+                return index < to;
+            }
+
+            public int next() {
+                return array[index++];
+            }
+        };
+    }
+
+    /**
+     * @param iterator A sorted primitive iterator, for example IntStream.iterator().
+     * @return A cursor over the rest of the iterator.
+     */
+    public static IntCursor cursor(PrimitiveIterator.OfInt iterator) {
+        return new IntCursor() {
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            public int next() {
+                return iterator.nextInt();
+            }
+        };
+    }
+
+    /**
+     * Merges whole sorted arrays into output.
+     *
+     * @param runs The sorted arrays.
+     * @param output Array with room for every value of every run.
+     * @return The number of comparisons made.
+     */
+    public static long kWayMerge(int[][] runs, int[] output) {
+        IntCursor[] cursors = new IntCursor[runs.length];
+        for (int i = 0; i < runs.length; i++) {
+            cursors[i] = cursor(runs[i], 0, runs[i].length);
+        }
+        KWayMerger merger = new KWayMerger(cursors);
+        merger.drainTo(output, 0, output.length);
+        if (merger.hasNext()) {
+            throw new IllegalArgumentException("output is too small for the runs");
+        }
+        return merger.comparisons();
+    }
+
+    /**
+     * Loser tree over k cursors. The leaves are positions k..2k-1 of an implicit binary tree,
+     * every internal node 1..k-1 holds the input that lost the match played there and
+     * tree[0] holds the overall winner. Ties go to the lower input index, so the merge is stable.
+     */
+    public static final class KWayMerger {
+        private final IntCursor[] sources;
+        private final int[] heads;      // Current value of each input
+        private final boolean[] live;   // False once an input has run out
+        private final int[] tree;       // tree[0] is the winner, the rest are losers
+        private long comparisons;
+
+        public KWayMerger(IntCursor... sources) {
+            this.sources = sources.clone();
+            int k = sources.length;
+            heads = new int[k];
+            live = new boolean[k];
+            tree = new int[Math.max(k, 1)];
+            for (int i = 0; i < k; i++) {
+                advance(i);
+            }
+            if (k > 0) {
+                // Play the first round bottom up, remembering each node's winner on the way
+                int[] winners = new int[k];
+                for (int node = k - 1; node >= 1; node--) {
+                    int left = 2 * node < k ? winners[2 * node] : 2 * node - k;
+                    int right = 2 * node + 1 < k ? winners[2 * node + 1] : 2 * node + 1 - k;
+                    if (beats(left, right)) {
+                        winners[node] = left;
+                        tree[node] = right;
+                    } else {
+                        winners[node] = right;
+                        tree[node] = left;
+                    }
+                }
+                tree[0] = k == 1 ? 0 : winners[1];
+            }
+        }
+
+        /**
+         * @return true while any input has values left.
+         */
+        public boolean hasNext() {
+            return sources.length > 0 && live[tree[0]];
+        }
+
+        /**
+         * @return The smallest value not yet returned.
+         */
+        public int next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            int winner = tree[0];
+            int value = heads[winner];
+            advance(winner);
+            // Replay the matches on the path from the winner's leaf to the root
+            for (int node = (winner + sources.length) / 2; node >= 1; node /= 2) {
+                if (beats(tree[node], winner)) {
+                    int loser = winner;
+                    winner = tree[node];
+                    tree[node] = loser;
+                }
+            }
+            tree[0] = winner;
+            return value;
+        }
+
+        /**
+         * Fills buffer with the next merged values.
+         *
+         * @return The number of values written, less than length only when the inputs ran out.
+         */
+        public int drainTo(int[] buffer, int offset, int length) {
+            int written = 0;
+            while (written < length && hasNext()) {
+                buffer[offset + written++] = next();
+            }
+            return written;
+        }
+
+        /**
+         * Sends every remaining value to the sink.
+         *
+         * @return The number of values sent.
+         */
+        public long drainTo(IntSink sink) {
+            long written = 0;
+            while (hasNext()) {
+                sink.accept(next());
+                written++;
+            }
+            return written;
+        }
+
+        /**
+         * @return The number of comparisons made so far.
+         */
+        public long comparisons() {
+            return comparisons;
+        }
+
+        private void advance(int source) {
+            live[source] = sources[source].hasNext();
+            if (live[source]) {
+                heads[source] = sources[source].next();
+            }
+        }
+
+        // An input that has run out loses to everything
+        private boolean beats(int a, int b) {
+            if (!live[a]) {
+                return false;
+            }
+            if (!live[b]) {
+                return true;
+            }
+            comparisons++;
+            return heads[a] < heads[b] || (heads[a] == heads[b] && a < b);
+        }
+    }
+
+    /**
+     * ---------------------------- Bubble Sort ---------------------------------------
+     */
+    public static long bubbleSort(int[] array) {
+        return bubbleSort(array, SortStats.ignored());
+    }
+
+    public static long bubbleSort(int[] array, SortStats stats) {
+        int lastPos;      // Position of last element to compare
+        int index;        // Index of an element to compare
+        long counter = 0; // Counter for the number of operations
+
+        // The outer loop positions lastPos at the last element
+        // to compare during each pass through the array. Initially
+        // lastPos is the index of the last element in the array.
+        // During each iteration, it is decreased by one.
+        for (lastPos = array.length - 1; lastPos >= 0; lastPos--) {
+            // The inner loop steps through the array, comparing
+            // each element with its neighbor. All of the elements
+            // from index 0 through lastPos are involved in the
+            // comparison. If two elements are out of order, they
+            // are swapped.
+            for (index = 0; index <= lastPos - 1; index++) {
+                // Compare an element with its neighbor.
+                counter++;
+                if (array[index] > array[index + 1]) {
+                    // Swap the two elements.
+
+                    swap(array, index, index + 1);
+                    if (SortStats.ENABLED)
+                        stats.swaps++;
+                }
+            }
+        }
+        if (SortStats.ENABLED)
+            stats.compares += counter;
+        return counter;
+    }
+
+    /**
+     * A demonstration of recursive counting in a Binary Search
+     * @param array - array to search
+     * @param low - the low index - set to 0 to search whiole array
+     * @param high - set to length of array to search whole array
+     * @param value - item to search for
+     * @param count - Used in recursion to accumulate the number of comparisons made (set to 0 on initial call)
+     *
+     * @return
+     */
+    private static int[] binarySearchR(int[] array, int low, int high, int value, int count)
+    {
+        int middle;     // Mid point of search
+
+        // Test for the base case where the value is not found.
+        if (low > high)
+            return new int[] {-1,count};
+
+        // Calculate the middle position.
+        middle = (low + high) / 2;
+
+        // Search for the value.
+        if (array[middle] == value)
             // Found match return the index
             return new int[] {middle, count};
 
-        else if (value > array[middle])
-            // Recursive method call here (Upper half of remaining data)
-            return binarySearchR(array, middle + 1, high, value, count+1);
-        else
-            // Recursive method call here (Lower half of remaining data)
-            return binarySearchR(array, low, middle - 1, value, count+1);
+        else if (value > array[middle])
+            // Recursive method call here (Upper half of remaining data)
+            return binarySearchR(array, middle + 1, high, value, count+1);
+        else
+            // Recursive method call here (Lower half of remaining data)
+            return binarySearchR(array, low, middle - 1, value, count+1);
+    }
+
+    /**
+     * ---------------------------- Iterative Binary Search ---------------------------------------
+     * Allocation free searches for many lookups against one sorted array. The results follow
+     * Arrays.binarySearch: the index of the value, or -(insertion point) - 1 when it is missing.
+     */
+
+    /**
+     * Branchless lower bound. The loop always runs log2(n) times and the only decision in it
+     * is a conditional add, which the JIT can turn into a conditional move.
+     *
+     * @param array Sorted array.
+     * @param from First index of the range to search.
+     * @param to Index after the end of the range.
+     * @param value Item to search for.
+     * @return The first index in [from, to) whose value is >= value, or to if there is none.
+     */
+    public static int lowerBound(int[] array, int from, int to, int value) {
+        int base = from;
+        int length = to - from;
+        if (length == 0) {
+            return from;
+        }
+        while (length > 1) {
+            int half = length >>> 1;
+            base = array[base + half] < value ? base + half : base;
+            length -= half;
+        }
+        return array[base] < value ? base + 1 : base;
+    }
+
+    /**
+     * Iterative replacement for binarySearchR that does not allocate.
+     *
+     * @param array Sorted array.
+     * @param value Item to search for.
+     * @return The index of value, or -(insertion point) - 1 if it is not in the array.
+     */
+    public static int binarySearch(int[] array, int value) {
+        int index = lowerBound(array, 0, array.length, value);
+        return index < array.length && array[index] == value ? index : -(index + 1);
+    }
+
+    /**
+     * Looks up many keys in one pass, results[i] is binarySearch(sorted, keys[i]). The keys are
+     * handled in ascending order so each search starts where the previous one finished and
+     * gallops forward, which walks the sorted array front to back. Keys that are not already
+     * in order are first sorted, together with their positions, with the key/value radix sort.
+     *
+     * @param sorted Sorted array to search.
+     * @param keys Items to search for, in any order.
+     * @param results Array of at least keys.length that receives the results.
+     * @param buffers Scratch space supplied by the caller, used only when the keys are not in order.
+     *                It does not allocate again once it has seen the largest number of keys.
+     */
+    public static void binarySearchBatch(int[] sorted, int[] keys, int[] results, SortBuffers buffers) {
+        int n = keys.length;
+        if (results.length < n) {
+            throw new IllegalArgumentException("results is shorter than keys");
+        }
+        boolean inOrder = true;
+        for (int i = 1; i < n && inOrder; i++) {
+            inOrder = keys[i - 1] <= keys[i];
+        }
+        int[] orderedKeys = keys;
+        int[] positions = null;
+        if (!inOrder) {
+            orderedKeys = buffers.queryKeys(n);
+            positions = buffers.queryPositions(n);
+            System.arraycopy(keys, 0, orderedKeys, 0, n);
+            for (int i = 0; i < n; i++) {
+                positions[i] = i;
+            }
+            radixSort(orderedKeys, positions, n, buffers);
+        }
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            int key = orderedKeys[i];
+            // Gallop forward from the last position to bracket the key, then search the bracket
+            int step = 1;
+            int end = start;
+            while (end < sorted.length && sorted[end] < key) {
+                start = end + 1;
+                end += step;
+                step <<= 1;
+            }
+            int index = lowerBound(sorted, start, Math.min(end, sorted.length), key);
+            start = index;
+            int result = index < sorted.length && sorted[index] == key ? index : -(index + 1);
+            results[positions == null ? i : positions[i]] = result;
+        }
+    }
+
+    /**
+     * Cache friendly copy of a sorted array in Eytzinger (breadth first) order: the root at 1,
+     * the children of k at 2k and 2k + 1. The first levels of every search share a few cache
+     * lines and the two possible next nodes sit next to each other, so the memory system can
+     * fetch ahead. Java has no prefetch instruction, so the batch search instead interleaves
+     * four independent searches to keep several cache misses in flight at once.
+     */
+    public static final class EytzingerIndex {
+        private final int[] tree;  // Values in breadth first order, tree[0] is unused
+        private final int[] rank;  // rank[k] is the index of tree[k] in the sorted array
+        private final int n;
+
+        /**
+         * @param sorted The sorted array to index, it is copied.
+         */
+        public EytzingerIndex(int[] sorted) {
+            n = sorted.length;
+            tree = new int[n + 1];
+            rank = new int[n + 1];
+            build(sorted, 0, 1);
+        }
+
+        // In order walk of the implicit tree, filling it from the sorted array
+        private int build(int[] sorted, int i, int k) {
+            if (k <= n) {
+                i = build(sorted, i, 2 * k);
+                tree[k] = sorted[i];
+                rank[k] = i++;
+                i = build(sorted, i, 2 * k + 1);
+            }
+            return i;
+        }
+
+        /**
+         * @return The index in the sorted array of the first value >= value, or n if there is none.
+         */
+        public int lowerBound(int value) {
+            int k = answer(descend(value));
+            return k == 0 ? n : rank[k];
+        }
+
+        /**
+         * @return The index of value in the sorted array, or -(insertion point) - 1 if it is missing.
+         */
+        public int search(int value) {
+            return finish(descend(value), value);
+        }
+
+        // Walks from the root to below a leaf, going right whenever the node is less than value
+        private int descend(int value) {
+            int k = 1;
+            while (k <= n) {
+                k = 2 * k + (tree[k] < value ? 1 : 0);
+            }
+            return k;
+        }
+
+        // Undo the right turns taken after the last left turn, that node is the lower bound, 0 if none
+        private static int answer(int k) {
+            return k >>> (Integer.numberOfTrailingZeros(~k) + 1);
+        }
+
+        /**
+         * Looks up every key, results[i] is search(keys[i]). Four searches run side by side.
+         */
+        public void searchBatch(int[] keys, int[] results) {
+            if (results.length < keys.length) {
+                throw new IllegalArgumentException("results is shorter than keys");
+            }
+            int i = 0;
+            for (; i + 4 <= keys.length; i += 4) {
+                int key0 = keys[i];
+                int key1 = keys[i + 1];
+                int key2 = keys[i + 2];
+                int key3 = keys[i + 3];
+                int k0 = 1;
+                int k1 = 1;
+                int k2 = 1;
+                int k3 = 1;
+                // Every search goes down the same number of levels, give or take the last one
+                while (k0 <= n || k1 <= n || k2 <= n || k3 <= n) {
+                    k0 = k0 <= n ? 2 * k0 + (tree[k0] < key0 ? 1 : 0) : k0;
+                    k1 = k1 <= n ? 2 * k1 + (tree[k1] < key1 ? 1 : 0) : k1;
+                    k2 = k2 <= n ? 2 * k2 + (tree[k2] < key2 ? 1 : 0) : k2;
+                    k3 = k3 <= n ? 2 * k3 + (tree[k3] < key3 ? 1 : 0) : k3;
+                }
+                results[i] = finish(k0, key0);
+                results[i + 1] = finish(k1, key1);
+                results[i + 2] = finish(k2, key2);
+                results[i + 3] = finish(k3, key3);
+            }
+            for (; i < keys.length; i++) {
+                results[i] = search(keys[i]);
+            }
+        }
+
+        // Turns the end point of a descent into a binarySearch style result
+        private int finish(int k, int value) {
+            k = answer(k);
+            int index = k == 0 ? n : rank[k];
+            return k != 0 && tree[k] == value ? index : -(index + 1);
+        }
+    }
+
+    /**
+     * ---------------------------- Sorted Container ---------------------------------------
+     * Keeps ints in order while they are added and removed, so data that keeps changing does
+     * not have to be sorted again after every update.
+     */
+
+    /**
+     * Sorted multiset of ints kept as a list of sorted blocks. A value is found with a binary
+     * search over the first value of every block and then one inside its block, and adding or
+     * removing it shifts at most one block, so an update costs O(log n + BLOCK_CAPACITY).
+     * New values wait in a small sorted buffer and are merged into the blocks in batches, one
+     * pass over each block they land in. Not thread safe.
+     * Run with -Dsorts.debug=true to check every block with ckSumSorted after each change.
+     */
+    public static final class SortedIntList {
+        static final boolean DEBUG = Boolean.getBoolean("sorts.debug");
+
+        static final int BLOCK_CAPACITY = 1024;
+        // Blocks are loaded and split to this size, leaving room for the next inserts
+        private static final int BLOCK_FILL = BLOCK_CAPACITY * 3 / 4;
+        // A block this small is joined with a neighbour
+        private static final int BLOCK_MIN = BLOCK_CAPACITY / 4;
+        static final int PENDING_CAPACITY = 64;
+
+        private int[][] blocks = new int[0][];
+        private int[] blockSizes = new int[0];
+        private int[] firsts = new int[0];    // firsts[b] is blocks[b][0], searched to find a block
+        private int blockCount;
+        private int blockedSize;              // Values in the blocks, the pending ones not included
+        private final int[] pending = new int[PENDING_CAPACITY]; // Sorted values not merged yet
+        private int pendingSize;
+
+        public SortedIntList() {
+        }
+
+        /**
+         * Bulk loads the values, sorting a copy of them with any of the sorts.
+         *
+         * @param values The values to start with, they are not changed.
+         * @param sortMethod The sort to use, it must leave the copy in ascending order.
+         */
+        public SortedIntList(int[] values, SortMethod sortMethod) {
+            int[] sorted = values.clone();
+            sortMethod.sort(sorted);
+            if (sorted.length > 0 && ckSumSorted(sorted) == -1) {
+                throw new IllegalArgumentException("The sort method did not sort the values");
+            }
+            load(sorted);
+            check();
+        }
+
+        /**
+         * @return The number of values, counting each copy of a repeated value.
+         */
+        public int size() {
+            return blockedSize + pendingSize;
+        }
+
+        /**
+         * Adds a value to the pending buffer, merging the buffer into the blocks when it is full.
+         */
+        public void add(int value) {
+            if (pendingSize == PENDING_CAPACITY) {
+                flush();
+            }
+            int index = lowerBound(pending, 0, pendingSize, value);
+            System.arraycopy(pending, index, pending, index + 1, pendingSize - index);
+            pending[index] = value;
+            pendingSize++;
+            check();
+        }
+
+        /**
+         * Adds many values at once: they are sorted and merged straight into the blocks.
+         *
+         * @param values The values to add, they are not changed.
+         */
+        public void addAll(int[] values) {
+            int[] sorted = values.clone();
+            introQuickSort(sorted);
+            mergeSorted(sorted, 0, sorted.length);
+            check();
+        }
+
+        /**
+         * Removes one copy of a value.
+         *
+         * @return true if the value was there.
+         */
+        public boolean remove(int value) {
+            int index = lowerBound(pending, 0, pendingSize, value);
+            if (index < pendingSize && pending[index] == value) {
+                System.arraycopy(pending, index + 1, pending, index, pendingSize - index - 1);
+                pendingSize--;
+                check();
+                return true;
+            }
+            if (blockCount == 0) {
+                return false;
+            }
+            int b = blockFor(value);
+            int[] block = blocks[b];
+            int size = blockSizes[b];
+            index = lowerBound(block, 0, size, value);
+            if (index == size || block[index] != value) {
+                return false;
+            }
+            System.arraycopy(block, index + 1, block, index, size - index - 1);
+            blockSizes[b] = --size;
+            blockedSize--;
+            if (size == 0) {
+                closeBlock(b);
+            } else {
+                firsts[b] = block[0];
+                if (size < BLOCK_MIN) {
+                    joinBlock(b);
+                }
+            }
+            check();
+            return true;
+        }
+
+        /**
+         * @return true if the value is in the list.
+         */
+        public boolean contains(int value) {
+            int index = lowerBound(pending, 0, pendingSize, value);
+            if (index < pendingSize && pending[index] == value) {
+                return true;
+            }
+            if (blockCount == 0) {
+                return false;
+            }
+            int b = blockFor(value);
+            index = lowerBound(blocks[b], 0, blockSizes[b], value);
+            return index < blockSizes[b] && blocks[b][index] == value;
+        }
+
+        /**
+         * @return The number of values in [from, to). The blocks inside the range are counted
+         *         from their sizes, so it costs a step per block rather than per value.
+         */
+        public int rangeCount(int from, int to) {
+            if (from >= to) {
+                return 0;
+            }
+            return countBelow(to) - countBelow(from);
+        }
+
+        /**
+         * Passes the values in [from, to) to the sink in ascending order. Pending values are
+         * merged into the blocks first.
+         */
+        public void range(int from, int to, IntSink sink) {
+            flush();
+            if (from >= to || blockCount == 0) {
+                return;
+            }
+            int b = Math.max(lowerBound(firsts, 0, blockCount, from) - 1, 0);
+            int index = lowerBound(blocks[b], 0, blockSizes[b], from);
+            for (; b < blockCount; b++, index = 0) {
+                int[] block = blocks[b];
+                for (; index < blockSizes[b]; index++) {
+                    if (block[index] >= to) {
+                        return;
+                    }
+                    sink.accept(block[index]);
+                }
+            }
+        }
+
+        /**
+         * Merges the pending values into the blocks.
+         */
+        public void flush() {
+            if (pendingSize > 0) {
+                mergeSorted(pending, 0, pendingSize);
+                pendingSize = 0;
+                check();
+            }
+        }
+
+        /**
+         * @return All the values in ascending order.
+         */
+        public int[] toArray() {
+            flush();
+            int[] result = new int[blockedSize];
+            int at = 0;
+            for (int b = 0; b < blockCount; b++) {
+                System.arraycopy(blocks[b], 0, result, at, blockSizes[b]);
+                at += blockSizes[b];
+            }
+            return result;
+        }
+
+        // The last block whose first value is <= value, or 0 when value is below them all.
+        // Any copy of value in the list is in this block.
+        private int blockFor(int value) {
+            int low = 0;
+            int high = blockCount;
+            while (high - low > 1) {
+                int mid = (low + high) >>> 1;
+                if (firsts[mid] <= value) {
+                    low = mid;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+
+        // The number of values < value, pending ones included
+        private int countBelow(int value) {
+            int count = lowerBound(pending, 0, pendingSize, value);
+            // Blocks before the one holding the first value >= value are below it completely
+            int b = lowerBound(firsts, 0, blockCount, value) - 1;
+            if (b >= 0) {
+                for (int i = 0; i < b; i++) {
+                    count += blockSizes[i];
+                }
+                count += lowerBound(blocks[b], 0, blockSizes[b], value);
+            }
+            return count;
+        }
+
+        private void load(int[] sorted) {
+            int count = (sorted.length + BLOCK_FILL - 1) / BLOCK_FILL;
+            blocks = new int[Math.max(count, 1)][];
+            blockSizes = new int[blocks.length];
+            firsts = new int[blocks.length];
+            for (int b = 0; b < count; b++) {
+                int from = b * BLOCK_FILL;
+                int length = Math.min(BLOCK_FILL, sorted.length - from);
+                blocks[b] = new int[BLOCK_CAPACITY];
+                System.arraycopy(sorted, from, blocks[b], 0, length);
+                blockSizes[b] = length;
+                firsts[b] = sorted[from];
+            }
+            blockCount = count;
+            blockedSize = sorted.length;
+        }
+
+        // Merges sorted[from..to) into the blocks, each block taking the run of values that belong to it
+        private void mergeSorted(int[] sorted, int from, int to) {
+            if (from == to) {
+                return;
+            }
+            if (blockCount == 0) {
+                load(Arrays.copyOfRange(sorted, from, to));
+                return;
+            }
+            // Last block first, so the blocks a split adds do not move the ones still to do
+            int end = to;
+            for (int b = blockCount - 1; b >= 0 && end > from; b--) {
+                // Block 0 also takes every value below its first one
+                int start = b == 0 ? from : lowerBound(sorted, from, end, firsts[b]);
+                if (start < end) {
+                    mergeIntoBlock(b, sorted, start, end);
+                    end = start;
+                }
+            }
+        }
+
+        private void mergeIntoBlock(int b, int[] sorted, int from, int to) {
+            int[] block = blocks[b];
+            int size = blockSizes[b];
+            int total = size + to - from;
+            blockedSize += to - from;
+            int i = size - 1;
+            int j = to - 1;
+            if (total <= BLOCK_CAPACITY) {
+                // Merge from the back so the block can be its own destination
+                for (int k = total - 1; j >= from; k--) {
+                    block[k] = i >= 0 && block[i] > sorted[j] ? block[i--] : sorted[j--];
+                }
+                blockSizes[b] = total;
+                firsts[b] = block[0];
+                return;
+            }
+            int[] merged = new int[total];
+            for (int k = total - 1; k >= 0; k--) {
+                merged[k] = j < from || i >= 0 && block[i] > sorted[j] ? block[i--] : sorted[j--];
+            }
+            // Too big for one block, split it into pieces of at most BLOCK_FILL
+            int pieces = (total + BLOCK_FILL - 1) / BLOCK_FILL;
+            openBlocks(b + 1, pieces - 1);
+            for (int p = 0; p < pieces; p++) {
+                int start = (int) ((long) total * p / pieces);
+                int end = (int) ((long) total * (p + 1) / pieces);
+                int[] piece = p == 0 ? block : new int[BLOCK_CAPACITY];
+                System.arraycopy(merged, start, piece, 0, end - start);
+                blocks[b + p] = piece;
+                blockSizes[b + p] = end - start;
+                firsts[b + p] = piece[0];
+            }
+        }
+
+        // Joins a small block with a neighbour when the two fit in BLOCK_FILL
+        private void joinBlock(int b) {
+            if (b + 1 < blockCount && blockSizes[b] + blockSizes[b + 1] <= BLOCK_FILL) {
+                System.arraycopy(blocks[b + 1], 0, blocks[b], blockSizes[b], blockSizes[b + 1]);
+                blockSizes[b] += blockSizes[b + 1];
+                closeBlock(b + 1);
+            } else if (b > 0 && blockSizes[b - 1] + blockSizes[b] <= BLOCK_FILL) {
+                System.arraycopy(blocks[b], 0, blocks[b - 1], blockSizes[b - 1], blockSizes[b]);
+                blockSizes[b - 1] += blockSizes[b];
+                closeBlock(b);
+            }
+        }
+
+        // Makes room for count blocks at index at, growing the directory when it is full
+        private void openBlocks(int at, int count) {
+            if (blockCount + count > blocks.length) {
+                int capacity = Math.max(blockCount + count, 2 * blocks.length);
+                blocks = Arrays.copyOf(blocks, capacity);
+                blockSizes = Arrays.copyOf(blockSizes, capacity);
+                firsts = Arrays.copyOf(firsts, capacity);
+            }
+            System.arraycopy(blocks, at, blocks, at + count, blockCount - at);
+            System.arraycopy(blockSizes, at, blockSizes, at + count, blockCount - at);
+            System.arraycopy(firsts, at, firsts, at + count, blockCount - at);
+            blockCount += count;
+        }
+
+        private void closeBlock(int b) {
+            System.arraycopy(blocks, b + 1, blocks, b, blockCount - b - 1);
+            System.arraycopy(blockSizes, b + 1, blockSizes, b, blockCount - b - 1);
+            System.arraycopy(firsts, b + 1, firsts, b, blockCount - b - 1);
+            blocks[--blockCount] = null;
+        }
+
+        // With DEBUG on, checks that every block and the pending buffer are sorted and in order
+        private void check() {
+            if (!DEBUG) {
+                return;
+            }
+            int total = 0;
+            for (int b = 0; b < blockCount; b++) {
+                int[] block = Arrays.copyOf(blocks[b], blockSizes[b]);
+                if (block.length == 0 || ckSumSorted(block) == -1 || firsts[b] != block[0]
+                        || b > 0 && blocks[b - 1][blockSizes[b - 1] - 1] > block[0]) {
+                    throw new IllegalStateException("Block " + b + " is empty or out of order");
+                }
+                total += block.length;
+            }
+            if (total != blockedSize) {
+                throw new IllegalStateException("The blocks hold " + total + " values, not " + blockedSize);
+            }
+            if (pendingSize > 0 && ckSumSorted(Arrays.copyOf(pending, pendingSize)) == -1) {
+                throw new IllegalStateException("The pending values are out of order");
+            }
+        }
+    }
+
+    /**
+     * ---------------------------- Auto Sort ---------------------------------------
+     */
+
+    /**
+     * A SortMethod that looks at the input in one pass (length, min/max and the number of
+     * descents) and hands it to the engine that is fastest for that shape. The thresholds
+     * start at values taken from the benchmark suite and can be recalibrated from a
+     * --bench results file with fromBenchmarks.
+     */
+    static final class AutoSort implements SortMethod {
+        int insertionMaxSize = 32;              // Arrays up to this size are insertion sorted
+        double countingRangeFactor = COUNTING_RANGE_FACTOR; // Counting sort when max - min + 1 <= factor * n
+        double presortedMaxDescents = 0.02;     // Adaptive merge when descents <= this share of n
+        int radixMinSize = 1 << 10;             // Wider ranges from this size use the LSD radix sort
+        int parallelMinSize = 1 << 17;          // Comparison sorts from this size use a parallel engine
+        boolean parallelMerge = false;          // Which parallel engine, merge or intro quick
+        boolean serialMerge = true;             // Which serial engine, bottom-up merge or intro quick
+
+        @Override
+        public long sort(int[] array, SortStats stats) {
+            int n = array.length;
+            if (n <= insertionMaxSize) {
+                return insertionSort(array, stats);
+            }
+            int min = array[0];
+            int max = array[0];
+            int descents = 0;
+            for (int i = 1; i < n; i++) {
+                int value = array[i];
+                if (value < min)
+                    min = value;
+                else if (value > max)
+                    max = value;
+                if (array[i - 1] > value)
+                    descents++;
+            }
+            if (SortStats.ENABLED)
+                // The profiling pass, two or three comparisons per value
+                stats.compares += 3L * (n - 1);
+            if (descents == 0) {
+                // Already sorted, the scan was all the work needed
+                return n - 1;
+            }
+            long range = (long) max - min + 1;
+            if (range <= countingRangeFactor * n) {
+                return countingSort(array, min, (int) range, stats);
+            }
+            if (descents <= presortedMaxDescents * n) {
+                return adaptiveSort(array, stats);
+            }
+            if (n >= radixMinSize) {
+                return radixSort(array, null, stats);
+            }
+            if (n >= parallelMinSize) {
+                return parallelMerge
+                        ? parallelMergeSort(array, PARALLEL_MERGE_CUTOFF, stats)
+                        : introQuickSort(array, stats);
+            }
+            return serialMerge ? bottomUpMergeSort(array, null, stats) : serialIntroQuickSort(array, stats);
+        }
+
+        /**
+         * Sets the thresholds from the results of a --bench run over several sizes and patterns,
+         * read with readResults so any results format works. Thresholds the file has no data for
+         * keep their defaults.
+         * <ul>
+         * <li>insertionMaxSize: the largest RANDOM size where Insertion beat every other sort.</li>
+         * <li>countingRangeFactor: the widest (max - min + 1) / n among the RANDOM and FEW_UNIQUE
+         *     data above insertionMaxSize where Radix, which counts on such data, beat every
+         *     comparison sort, as long as no narrower data saw it lose.</li>
+         * <li>presortedMaxDescents: the same for Adaptive, by descents / n, over the SORTED,
+         *     NEARLY_SORTED, SORTED_RANDOM_TAIL and SAWTOOTH data.</li>
+         * <li>radixMinSize: the WIDE_RANDOM size from which Radix beat every comparison sort at
+         *     that size and all larger ones.</li>
+         * <li>parallelMinSize: the size from which ParMerge or IntroQuick beat every serial
+         *     sort, on WIDE_RANDOM or else RANDOM, and serialMerge whether BUMerge beat
+         *     IntroQuick at most of the sizes below it.</li>
+         * </ul>
+         *
+         * @param results A file written by --bench, --sweep or --export.
+         * @return The calibrated dispatcher.
+         */
+        static AutoSort fromBenchmarks(Path results) throws IOException {
+            // dataset -> size -> benchmark -> score
+            Map<String, TreeMap<Integer, Map<String, Double>>> scores = new HashMap<>();
+            for (ResultRecord record : readResults(results)) {
+                scores.computeIfAbsent(record.dataset, dataset -> new TreeMap<>())
+                        .computeIfAbsent(record.size, size -> new HashMap<>())
+                        .put(record.benchmark, record.mean);
+            }
+            AutoSort auto = new AutoSort();
+            TreeMap<Integer, Map<String, Double>> random = scores.getOrDefault(ArrayPattern.RANDOM.name(), new TreeMap<>());
+
+            int insertionMax = -1;
+            for (Map.Entry<Integer, Map<String, Double>> entry : random.entrySet()) {
+                Map<String, Double> bySort = entry.getValue();
+                Double insertion = bySort.get("Insertion");
+                if (insertion != null && insertion <= bestScore(bySort, "Radix", "Merge", "Quick",
+                        "ParMerge", "IntroQuick", "Adaptive", "BUMerge")) {
+                    insertionMax = entry.getKey();
+                }
+            }
+            if (insertionMax >= 0) {
+                auto.insertionMaxSize = insertionMax;
+            }
+
+            // Counting against the engines AutoSort would use instead, on data narrow enough to count.
+            // Sizes that are insertion sorted never get this far, so they do not vote.
+            TreeMap<Double, Boolean> countingWins = new TreeMap<>();
+            for (ArrayPattern pattern : List.of(ArrayPattern.RANDOM, ArrayPattern.FEW_UNIQUE)) {
+                for (Map.Entry<Integer, Map<String, Double>> entry : scores.getOrDefault(pattern.name(),
+                        new TreeMap<>()).tailMap(auto.insertionMaxSize, false).entrySet()) {
+                    int[] data = benchData(entry.getKey(), pattern);
+                    long[] minMax = minMax(data, 0, data.length);
+                    double ratio = (minMax[1] - minMax[0] + 1.0) / data.length;
+                    Double radix = entry.getValue().get("Radix");
+                    if (radix != null && ratio <= COUNTING_RANGE_FACTOR) {
+                        recordWin(countingWins, ratio, radix <= bestScore(entry.getValue(), "BUMerge", "Merge",
+                                "Quick", "ParMerge", "IntroQuick", "Adaptive"));
+                    }
+                }
+            }
+            auto.countingRangeFactor = widestWin(countingWins, auto.countingRangeFactor);
+
+            TreeMap<Double, Boolean> adaptiveWins = new TreeMap<>();
+            for (ArrayPattern pattern : List.of(ArrayPattern.SORTED, ArrayPattern.NEARLY_SORTED,
+                    ArrayPattern.SORTED_RANDOM_TAIL, ArrayPattern.SAWTOOTH)) {
+                for (Map.Entry<Integer, Map<String, Double>> entry : scores.getOrDefault(pattern.name(),
+                        new TreeMap<>()).tailMap(auto.insertionMaxSize, false).entrySet()) {
+                    Double adaptive = entry.getValue().get("Adaptive");
+                    if (adaptive != null) {
+                        int[] data = benchData(entry.getKey(), pattern);
+                        recordWin(adaptiveWins, (double) descents(data) / data.length, adaptive
+                                <= bestScore(entry.getValue(), "BUMerge", "Merge", "Quick", "ParMerge", "IntroQuick"));
+                    }
+                }
+            }
+            auto.presortedMaxDescents = widestWin(adaptiveWins, auto.presortedMaxDescents);
+
+            TreeMap<Integer, Map<String, Double>> wide = scores.get(ArrayPattern.WIDE_RANDOM.name());
+            if (wide != null) {
+                TreeMap<Integer, Boolean> radixWins = new TreeMap<>();
+                for (Map.Entry<Integer, Map<String, Double>> entry : wide.entrySet()) {
+                    Double radix = entry.getValue().get("Radix");
+                    if (radix != null) {
+                        radixWins.put(entry.getKey(), radix <= bestScore(entry.getValue(), "BUMerge", "Merge",
+                                "Quick", "ParMerge", "IntroQuick", "Adaptive"));
+                    }
+                }
+                if (!radixWins.isEmpty()) {
+                    auto.radixMinSize = crossover(radixWins);
+                }
+            }
+
+            TreeMap<Integer, Map<String, Double>> general = wide != null ? wide : random;
+            TreeMap<Integer, Boolean> parallelWins = new TreeMap<>();
+            int mergeVotes = 0;
+            for (Map.Entry<Integer, Map<String, Double>> entry : general.entrySet()) {
+                Map<String, Double> bySort = entry.getValue();
+                double parMerge = bestScore(bySort, "ParMerge");
+                double introQuick = bestScore(bySort, "IntroQuick");
+                if (parMerge < Double.MAX_VALUE || introQuick < Double.MAX_VALUE) {
+                    double serial = bestScore(bySort, "BUMerge", "Merge", "Insertion", "Quick", "Adaptive");
+                    parallelWins.put(entry.getKey(), Math.min(parMerge, introQuick) < serial);
+                }
+            }
+            if (!parallelWins.isEmpty()) {
+                auto.parallelMinSize = crossover(parallelWins);
+                Map<String, Double> atCrossover = general.get(auto.parallelMinSize);
+                if (atCrossover != null) {
+                    auto.parallelMerge = bestScore(atCrossover, "ParMerge") < bestScore(atCrossover, "IntroQuick");
+                }
+            }
+            for (Map.Entry<Integer, Map<String, Double>> entry : general.headMap(auto.parallelMinSize).entrySet()) {
+                Double bottomUp = entry.getValue().get("BUMerge");
+                Double introQuick = entry.getValue().get("IntroQuick");
+                if (bottomUp != null && introQuick != null) {
+                    mergeVotes += bottomUp <= introQuick ? 1 : -1;
+                }
+            }
+            if (mergeVotes != 0) {
+                auto.serialMerge = mergeVotes > 0;
+            }
+            return auto;
+        }
+
+        // The data a benchmark of the given size and pattern was measured on
+        private static int[] benchData(int size, ArrayPattern pattern) {
+            return generateArray(BENCH_SEED, size, pattern);
+        }
+
+        private static int descents(int[] array) {
+            int descents = 0;
+            for (int i = 1; i < array.length; i++) {
+                if (array[i - 1] > array[i])
+                    descents++;
+            }
+            return descents;
+        }
+
+        // A loss at a ratio outweighs wins measured at the same ratio
+        private static void recordWin(TreeMap<Double, Boolean> wins, double ratio, boolean win) {
+            wins.merge(ratio, win, Boolean::logicalAnd);
+        }
+
+        /**
+         * @param wins Whether the engine won, by ratio.
+         * @param current The threshold so far, kept when no loss says it is too wide.
+         * @return The largest ratio below the first loss that was a win, 0 if the smallest ratio
+         *         already lost. With no loss at all the data only says the threshold is at least
+         *         the widest ratio measured.
+         */
+        private static double widestWin(TreeMap<Double, Boolean> wins, double current) {
+            double widest = 0;
+            for (Map.Entry<Double, Boolean> entry : wins.entrySet()) {
+                if (!entry.getValue()) {
+                    return widest;
+                }
+                widest = entry.getKey();
+            }
+            return Math.max(widest, current);
+        }
+
+        /**
+         * @return The smallest size from which every measured size is a win, Integer.MAX_VALUE
+         *         if the largest size lost.
+         */
+        private static int crossover(TreeMap<Integer, Boolean> wins) {
+            int from = Integer.MAX_VALUE;
+            for (Map.Entry<Integer, Boolean> entry : wins.descendingMap().entrySet()) {
+                if (!entry.getValue()) {
+                    break;
+                }
+                from = entry.getKey();
+            }
+            return from;
+        }
+
+        private static double bestScore(Map<String, Double> bySort, String... names) {
+            double best = Double.MAX_VALUE;
+            for (String name : names) {
+                Double score = bySort.get(name);
+                if (score != null) {
+                    best = Math.min(best, score);
+                }
+            }
+            return best;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("insertionMaxSize=%d countingRangeFactor=%.3f presortedMaxDescents=%.4f "
+                            + "radixMinSize=%d parallelMinSize=%d parallelEngine=%s serialEngine=%s",
+                    insertionMaxSize, countingRangeFactor, presortedMaxDescents, radixMinSize, parallelMinSize,
+                    parallelMerge ? "ParMerge" : "IntroQuick", serialMerge ? "BUMerge" : "IntroQuick");
+        }
+    }
+
+    /**
+     * Interface for the sorting methods
+     */
+    interface SortMethod {
+        /**
+         * Sorts the array and adds what it did to stats, see SortStats.
+         */
+        long sort(int[] array, SortStats stats);
+
+        default long sort(int[] array) {
+            return sort(array, SortStats.ignored());
+        }
+    }
+
+    // Array of sort names to be used for output
+    private static final String[] sortNames = {
+            "Selection", "Radix", "Merge", "Insertion", "Quick", "Bubble", "ParMerge", "IntroQuick", "Adaptive", "Auto",
+            "BUMerge"
+    };
+    // Initialize an array of all sorting methods for method referencing
+    private static final SortMethod[] sortMethods = {
+            (array, stats) -> selectionSort(array, stats),
+            (array, stats) -> radixSort(array, null, stats),
+            (array, stats) -> mergeSort(array, stats),
+            (array, stats) -> insertionSort(array, stats),
+            (array, stats) -> quickSort(array, stats),
+            (array, stats) -> bubbleSort(array, stats),
+            (array, stats) -> parallelMergeSort(array, PARALLEL_MERGE_CUTOFF, stats),
+            (array, stats) -> introQuickSort(array, stats),
+            (array, stats) -> adaptiveSort(array, stats),
+            new AutoSort(),
+            (array, stats) -> bottomUpMergeSort(array, null, stats),
+    };
+
+    /**
+     * Runs a sorting method on an array and outputs the time it takes and the number of comparisons
+     * @param sortMethod The sort method to use
+     * @param sortName The name of the sort method
+     * @param array The array to sort
+     * @param totalRuns The number of runs to perform per sort method
+     * @return The time of every run and its statistics
+     */
+    private static ResultRecord runSortMethod(SortMethod sortMethod, String sortName, int[] array, int totalRuns) {
+        LatencyHistogram runTimes = new LatencyHistogram(); // The nanoTime of each run
+        long totalCompares = 0; // Counter for the number of comparisons
+
+        // Ensure array is sorted
+        if (ckSumSorted(array) != -1) {
+            throw new IllegalArgumentException("Array is not sorted");
+        }
+
+        SortStats stats = SortStats.ignored(); // Totals over every run when -Dsorts.stats=true
+        int[] arrayClone = new int[0];
+        for (int i = 0; i < totalRuns; i++) {
+            arrayClone = array.clone(); // Create a copy of the array to keep the original unsorted
+            long start = System.nanoTime();
+            long compares = sortMethod.sort(arrayClone, stats);
+            long end = System.nanoTime();
+
+            runTimes.record(end - start);
+            totalCompares += compares;
+        }
+
+        // Calculate the average time and number of comparisons
+        double avgTime = runTimes.mean() / 1_000_000;
+        double avgCompares = totalCompares / (double) totalRuns;
+        // Output
+        System.out.printf("%-10s", sortName);
+        System.out.printf("%,10.7f ms", avgTime);
+        System.out.printf("%,14d ops", (long) avgCompares);
+        System.out.printf("%,14.7f ms / op", avgTime / avgCompares);
+        System.out.printf("%,12d \n", ckSumSorted(arrayClone));
+        if (SortStats.ENABLED) {
+            System.out.printf("%10s compares %,d swaps %,d moves %,d depth %d allocated %,d bytes (per run)\n", "",
+                    stats.compares / totalRuns, stats.swaps / totalRuns, stats.moves / totalRuns,
+                    stats.maxDepth, stats.bytesAllocated / totalRuns);
+        }
+        System.out.printf("%10s %s\n", "", runTimes);
+        return ResultRecord.of(sortName, ArrayPattern.RANDOM.name(), array.length, runTimes, avgCompares,
+                ckSumSorted(arrayClone));
+    }
+    /**
+     * Calls each sorting method for the given array
+     * @param array The array to run the sort methods on
+     * @param sortMethods The array of sort methods to use
+     * @param sortNames The array of sort names
+     * @param totalRuns The number of runs to perform per sort method
+     * @return The result of each sort method
+     */
+    private static List<ResultRecord> runArraySort(int[] array, SortMethod[] sortMethods, String[] sortNames,
+                                                   int totalRuns) {
+        System.out.printf("\nComparison of sorts, Array size = %,d total runs = %,d\n", array.length, totalRuns);
+        System.out.println("==============================================================");
+        System.out.println("Algorithm      Run time     # of compares         ms / compares    checksum");
+
+        // Run each sort method on the array
+        List<ResultRecord> records = new ArrayList<>();
+        LatencyHistogram[] runTimes = new LatencyHistogram[sortMethods.length];
+        for (int i = 0; i < sortMethods.length; i++) {
+            records.add(runSortMethod(sortMethods[i], sortNames[i], array, totalRuns));
+            runTimes[i] = records.get(i).runTimes;
+        }
+        System.out.println(rankSorts(sortNames, runTimes));
+        return records;
+    }
+
+    /**
+     * Orders the sorts by mean run time and marks the neighbours whose means Welch's t-test
+     * cannot tell apart, e.g. "Quick < Radix ~ Merge" says Quick is faster than both, but
+     * the order of Radix and Merge may be noise
+     * @param sortNames The names of the sorts
+     * @param runTimes The run times of each sort
+     * @return The ranking, fastest first
+     */
+    private static String rankSorts(String[] sortNames, LatencyHistogram[] runTimes) {
+        Integer[] order = new Integer[runTimes.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(runTimes[a].mean(), runTimes[b].mean()));
+        StringBuilder ranking = new StringBuilder("Ranking (fastest first, ~ not distinguishable at 95%): ");
+        int tied = 0;
+        for (int i = 0; i < order.length; i++) {
+            if (i > 0) {
+                boolean distinct = runTimes[order[i - 1]].distinguishableFrom(runTimes[order[i]]);
+                tied += distinct ? 0 : 1;
+                ranking.append(distinct ? " < " : " ~ ");
+            }
+            ranking.append(sortNames[order[i]]);
+        }
+        if (tied > 0) {
+            ranking.append(String.format("\n%d neighbouring pair(s) may swap places between runs", tied));
+        }
+        return ranking.toString();
+    }
+    /**
+     * Generates an array of random integers
+     * @param studentID The number used to seed the random number generator
+     * @param arraySize THe size of the array to generate
+     * @return The generated array
+     */
+    private static int[] generateArray(long studentID, int arraySize) {
+        Random rand = new Random(studentID);
+        int[] array = new int[arraySize];
+        for(int i = 0; i < array.length; i++) {
+            array[i] = rand.nextInt(1, arraySize);
+        }
+        return array;
+    }
+
+    /**
+     * Shapes of input data that generateArray can build
+     */
+    enum ArrayPattern {
+        RANDOM,             // Uniform random values, the same data as generateArray(seed, size)
+        SORTED,             // Already in ascending order
+        REVERSED,           // In descending order
+        SORTED_RANDOM_TAIL, // Sorted, with a random 10% appended at the end
+        SAWTOOTH,           // Eight ascending ramps one after another
+        UNIFORM,            // Uniform random values like RANDOM, generated in parallel
+        ZIPF,               // Zipf distributed ranks, a few values are very common
+        GAUSSIAN,           // Normally distributed around size / 2
+        FEW_UNIQUE,         // Only FEW_UNIQUE_VALUES distinct values
+        ORGAN_PIPE,         // Ascending to the middle, then descending
+        NEARLY_SORTED,      // Sorted, with one random pair swapped per NEARLY_SORTED_SPACING values
+        QUICKSORT_KILLER,   // The order quickSort's middle pivot handles in O(n^2), deep enough to overflow its stack
+        WIDE_RANDOM         // Uniform random values over the whole int range, too wide for a counting sort
+    }
+
+    /**
+     * Generates an array of random integers arranged in a pattern, from the cache directory
+     * when -Dsorts.cache is set
+     * @param seed The number used to seed the random number generator
+     * @param arraySize The size of the array to generate
+     * @param pattern How the values are arranged
+     * @return The generated array
+     */
+    private static int[] generateArray(long seed, int arraySize, ArrayPattern pattern) {
+        if (WORKLOAD_CACHE != null) {
+            try {
+                return cachedArray(Path.of(WORKLOAD_CACHE), seed, arraySize, pattern);
+            } catch (IOException e) {
+                throw new IllegalStateException("Cannot use the workload cache " + WORKLOAD_CACHE, e);
+            }
+        }
+        return buildArray(seed, arraySize, pattern);
+    }
+
+    private static int[] buildArray(long seed, int arraySize, ArrayPattern pattern) {
+        switch (pattern) {
+            case UNIFORM -> {
+                return generateParallel(seed, arraySize, uniform(1, Math.max(arraySize, 2)));
+            }
+            case ZIPF -> {
+                return generateParallel(seed, arraySize, zipf(Math.max(arraySize, 1), ZIPF_EXPONENT));
+            }
+            case GAUSSIAN -> {
+                return generateParallel(seed, arraySize, gaussian(arraySize / 2.0, arraySize / 6.0));
+            }
+            case FEW_UNIQUE -> {
+                SplittableRandom random = new SplittableRandom(seed);
+                int[] values = new int[FEW_UNIQUE_VALUES];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = random.nextInt(1, Math.max(arraySize, 2));
+                }
+                return generateParallel(seed, arraySize, fewUnique(values));
+            }
+            case ORGAN_PIPE -> {
+                return organPipe(arraySize);
+            }
+            case NEARLY_SORTED -> {
+                int[] array = new int[arraySize];
+                for (int i = 0; i < arraySize; i++) {
+                    array[i] = i + 1;
+                }
+                randomSwaps(array, arraySize / NEARLY_SORTED_SPACING, seed);
+                return array;
+            }
+            case QUICKSORT_KILLER -> {
+                return quicksortKiller(arraySize);
+            }
+            case WIDE_RANDOM -> {
+                return generateParallel(seed, arraySize, uniform(Integer.MIN_VALUE, Integer.MAX_VALUE));
+            }
+            default -> {
+                // The patterns below rearrange the part 1 data
+            }
+        }
+        int[] array = generateArray(seed, arraySize);
+        switch (pattern) {
+            case RANDOM -> {
+                // Already random
+            }
+            case SORTED -> radixSort(array);
+            case REVERSED -> {
+                radixSort(array);
+                for (int i = 0, j = array.length - 1; i < j; i++, j--) {
+                    swap(array, i, j);
+                }
+            }
+            case SORTED_RANDOM_TAIL -> {
+                int[] head = Arrays.copyOf(array, arraySize - arraySize / 10);
+                radixSort(head);
+                System.arraycopy(head, 0, array, 0, head.length);
+            }
+            case SAWTOOTH -> {
+                int tooth = Math.max(1, arraySize / 8);
+                for (int i = 0; i < array.length; i++) {
+                    array[i] = i % tooth;
+                }
+            }
+            default -> throw new IllegalArgumentException("Unknown pattern: " + pattern);
+        }
+        return array;
+    }
+
+    /**
+     * ---------------------------- Workload Generator ---------------------------------------
+     * Reproducible inputs of any size. The array is cut into fixed blocks and block b draws from
+     * its own SplittableRandom seeded from (seed, b), so the blocks can be filled in parallel and
+     * the same seed gives the same array on any number of threads.
+     */
+
+    // Values generated by one task, and by one random stream
+    private static final int WORKLOAD_BLOCK = 1 << 16;
+    // Directory generated arrays are cached in, set with -Dsorts.cache=dir, null for no cache
+    private static final String WORKLOAD_CACHE = System.getProperty("sorts.cache");
+    // Exponent of the ZIPF pattern, 1 is the classic word frequency curve
+    private static final double ZIPF_EXPONENT = 1.0;
+    // Number of distinct values in the FEW_UNIQUE pattern
+    private static final int FEW_UNIQUE_VALUES = 16;
+    // The NEARLY_SORTED pattern swaps one pair per this many values
+    private static final int NEARLY_SORTED_SPACING = 100;
+
+    /**
+     * Fills part of an array with values drawn from a distribution
+     */
+    interface BlockGenerator {
+        void fill(int[] array, int from, int to, SplittableRandom random);
+    }
+
+    /**
+     * Builds an array by filling its blocks in parallel
+     * @param seed The seed, the same seed always gives the same array
+     * @param size The array size
+     * @param generator The distribution to draw the values from
+     * @return The generated array
+     */
+    public static int[] generateParallel(long seed, int size, BlockGenerator generator) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative: " + size);
+        }
+        int[] array = new int[size];
+        int blocks = (size + WORKLOAD_BLOCK - 1) / WORKLOAD_BLOCK;
+        if (blocks > 0) {
+            ForkJoinPool.commonPool().invoke(new FillTask(array, seed, 0, blocks, generator));
+        }
+        return array;
+    }
+
+    /**
+     * Fills blocks [lower..higher) of an array, splitting the range until one block is left
+     */
+    private static class FillTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int[] array;
+        private final long seed;
+        private final int lower;
+        private final int higher;
+        private final BlockGenerator generator;
+
+        FillTask(int[] array, long seed, int lower, int higher, BlockGenerator generator) {
+            this.array = array;
+            this.seed = seed;
+            this.lower = lower;
+            this.higher = higher;
+            this.generator = generator;
+        }
+
+        @Override
+        protected void compute() {
+            if (higher - lower == 1) {
+                int from = lower * WORKLOAD_BLOCK;
+                int to = (int) Math.min((long) from + WORKLOAD_BLOCK, array.length);
+                // A SplittableRandom seeded with seed + b * gamma would replay block 0's stream b steps
+                // later, so each block is seeded with the b-th output of a SplittableRandom(seed)
+                long blockSeed = new SplittableRandom(seed + lower * 0x9E3779B97F4A7C15L).nextLong();
+                generator.fill(array, from, to, new SplittableRandom(blockSeed));
+                return;
+            }
+            int middle = (lower + higher) >>> 1;
+            invokeAll(new FillTask(array, seed, lower, middle, generator),
+                    new FillTask(array, seed, middle, higher, generator));
+        }
+    }
+
+    /**
+     * @return Uniform values in [origin, bound).
+     */
+    public static BlockGenerator uniform(int origin, int bound) {
+        return (array, from, to, random) -> {
+            for (int i = from; i < to; i++) {
+                array[i] = random.nextInt(origin, bound);
+            }
+        };
+    }
+
+    /**
+     * @return Normally distributed values, rounded to the nearest int.
+     */
+    public static BlockGenerator gaussian(double mean, double stdDev) {
+        return (array, from, to, random) -> {
+            for (int i = from; i < to; i++) {
+                // Box-Muller, SplittableRandom has no nextGaussian in Java 17
+                double u = 1 - random.nextDouble();
+                double v = random.nextDouble();
+                double normal = Math.sqrt(-2 * Math.log(u)) * Math.cos(2 * Math.PI * v);
+                array[i] = (int) Math.round(mean + stdDev * normal);
+            }
+        };
+    }
+
+    /**
+     * @return Values picked uniformly from a small set, so most values are duplicates.
+     */
+    public static BlockGenerator fewUnique(int[] values) {
+        if (values.length == 0) {
+            throw new IllegalArgumentException("values is empty");
+        }
+        int[] copy = values.clone();
+        return (array, from, to, random) -> {
+            for (int i = from; i < to; i++) {
+                array[i] = copy[random.nextInt(copy.length)];
+            }
+        };
+    }
+
+    /**
+     * Zipf distributed ranks: value k in [1, n] comes up in proportion to 1 / k^exponent. Sampled
+     * by rejection-inversion (Hormann and Derflinger, 1996), which needs O(1) memory and time
+     * instead of a table of n probabilities.
+     *
+     * @param n The number of ranks.
+     * @param exponent The exponent, more than 0.
+     * @return The distribution.
+     */
+    public static BlockGenerator zipf(int n, double exponent) {
+        if (n < 1 || !(exponent > 0)) {
+            throw new IllegalArgumentException("zipf needs n >= 1 and exponent > 0: " + n + ", " + exponent);
+        }
+        double hIntegralX1 = zipfHIntegral(1.5, exponent) - 1;
+        double hIntegralN = zipfHIntegral(n + 0.5, exponent);
+        double squeeze = 2 - zipfHIntegralInverse(zipfHIntegral(2.5, exponent) - Math.pow(2, -exponent), exponent);
+        return (array, from, to, random) -> {
+            for (int i = from; i < to; i++) {
+                int k;
+                while (true) {
+                    double u = hIntegralN + random.nextDouble() * (hIntegralX1 - hIntegralN);
+                    double x = zipfHIntegralInverse(u, exponent);
+                    k = (int) Math.max(1, Math.min(n, Math.round(x)));
+                    if (k - x <= squeeze || u >= zipfHIntegral(k + 0.5, exponent) - Math.pow(k, -exponent)) {
+                        break;
+                    }
+                }
+                array[i] = k;
+            }
+        };
+    }
+
+    // Integral of x^-exponent, shifted so it is continuous at exponent 1
+    private static double zipfHIntegral(double x, double exponent) {
+        double logX = Math.log(x);
+        double t = (1 - exponent) * logX;
+        // expm1(t) / t, with its series near 0 where the division loses precision
+        double ratio = Math.abs(t) > 1e-8 ? Math.expm1(t) / t : 1 + t / 2 * (1 + t / 3 * (1 + t / 4));
+        return ratio * logX;
+    }
+
+    private static double zipfHIntegralInverse(double x, double exponent) {
+        double t = Math.max(x * (1 - exponent), -1);
+        // log1p(t) / t, with its series near 0
+        double ratio = Math.abs(t) > 1e-8 ? Math.log1p(t) / t : 1 - t * (0.5 - t * (1.0 / 3 - 0.25 * t));
+        return Math.exp(ratio * x);
+    }
+
+    /**
+     * Ascending to the middle and descending after it, e.g. 0 1 2 3 2 1 0
+     * @param size The array size
+     * @return The generated array
+     */
+    public static int[] organPipe(int size) {
+        int[] array = new int[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = Math.min(i, size - 1 - i);
+        }
+        return array;
+    }
+
+    /**
+     * Swaps k random pairs of an array, which makes a sorted array nearly sorted
+     * @param array The array to disturb
+     * @param swaps The number of pairs to swap
+     * @param seed The seed of the positions
+     */
+    public static void randomSwaps(int[] array, int swaps, long seed) {
+        if (array.length < 2) {
+            return;
+        }
+        SplittableRandom random = new SplittableRandom(seed);
+        for (int i = 0; i < swaps; i++) {
+            swap(array, random.nextInt(array.length), random.nextInt(array.length));
+        }
+    }
+
+    /**
+     * Input that makes quickSort take O(n^2) time. quickSort always takes the middle value of a
+     * range as the pivot, so this replays its partitioning on positions and gives each pivot the
+     * smallest value not yet used. Every partition then splits off only its pivot. The sort
+     * recurses n levels deep, so sizes of more than a few thousand overflow the default stack.
+     *
+     * @param size The array size
+     * @return The values 1 to size in the order quickSort handles worst
+     */
+    public static int[] quicksortKiller(int size) {
+        int[] position = new int[size]; // position[i] is where the value now at i started
+        for (int i = 0; i < size; i++) {
+            position[i] = i;
+        }
+        int[] array = new int[size];
+        int end = size - 1;
+        for (int start = 0; start < size; start++) {
+            // part1 swaps the middle value to the start, finds nothing less than it, and
+            // leaves it there, so the next range starts one later
+            swap(position, start, (start + end) / 2);
+            array[position[start]] = start + 1;
+        }
+        return array;
+    }
+
+    /**
+     * Shuffles an array with Fisher-Yates, every order is equally likely. Swapping each value
+     * with any index, as shuffle used to, favours some orders.
+     *
+     * @param array The array to shuffle
+     * @param seed The seed, the same seed always gives the same order
+     */
+    public static void shuffle(int[] array, long seed) {
+        shuffle(array, new SplittableRandom(seed));
+    }
+
+    private static void shuffle(int[] array, SplittableRandom random) {
+        for (int i = array.length - 1; i > 0; i--) {
+            swap(array, i, random.nextInt(i + 1));
+        }
+    }
+
+    /**
+     * Reads a generated array from the cache directory, or generates and stores it. The file holds
+     * big-endian ints and nothing else, the input format of externalSort, and is read through
+     * memory maps. Forks generating the same file at once each write a temp file and move it in.
+     *
+     * @param cache The cache directory
+     * @param seed The seed
+     * @param size The array size
+     * @param pattern The shape of the array
+     * @return The array
+     */
+    private static int[] cachedArray(Path cache, long seed, int size, ArrayPattern pattern) throws IOException {
+        Path file = cache.resolve(pattern.name().toLowerCase() + "-" + size + "-" + seed + ".ints");
+        if (Files.isRegularFile(file) && Files.size(file) == (long) size * Integer.BYTES) {
+            int[] array = new int[size];
+            try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ)) {
+                readInts(in, 0, array, size);
+            }
+            return array;
+        }
+        int[] array = buildArray(seed, size, pattern);
+        Files.createDirectories(cache);
+        Path temp = Files.createTempFile(cache, file.getFileName().toString(), ".tmp");
+        writeInts(temp, array, size, ByteBuffer.allocateDirect(EXTERNAL_MIN_BUFFER));
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return array;
+    }
+
+    /**
+     * ---------------------------- Latency Histogram ---------------------------------------
+     */
+
+    /**
+     * Records run times in log-linear buckets, as HdrHistogram does. Values below 128 get a bucket
+     * each, and every power of two above that is split into 64 buckets, so a percentile is
+     * within 1/64 (about 1.6%) of the true value. Recording is a shift, an add and an increment
+     * with no allocation. The count, mean, standard deviation, min and max are kept exactly.
+     */
+    public static final class LatencyHistogram {
+        private static final int SUB_BUCKET_BITS = 7;
+        private static final int HALF_BUCKET_COUNT = 1 << (SUB_BUCKET_BITS - 1);
+        // Two-sided 95% Student t values for 1 to 30 degrees of freedom
+        private static final double[] T_975 = {
+                12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+                2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+                2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042
+        };
+
+        private final long[] counts = new long[(64 - SUB_BUCKET_BITS + 1) * HALF_BUCKET_COUNT];
+        private long count;
+        private double sum;
+        private double sumOfSquares;
+        private long min = Long.MAX_VALUE;
+        private long max;
+
+        /**
+         * Adds one run
+         * @param nanos The run time, 0 or more.
+         */
+        public void record(long nanos) {
+            if (nanos < 0) {
+                throw new IllegalArgumentException("A run time cannot be negative: " + nanos);
+            }
+            counts[bucket(nanos)]++;
+            count++;
+            sum += nanos;
+            sumOfSquares += (double) nanos * nanos;
+            min = Math.min(min, nanos);
+            max = Math.max(max, nanos);
+        }
+
+        private static int bucket(long value) {
+            // Keep the top SUB_BUCKET_BITS bits, shift says how many low bits were dropped
+            int shift = 63 - Long.numberOfLeadingZeros(value | ((1L << SUB_BUCKET_BITS) - 1)) - (SUB_BUCKET_BITS - 1);
+            return (shift << (SUB_BUCKET_BITS - 1)) + (int) (value >>> shift);
+        }
+
+        private static long highestValueIn(int bucket) {
+            int shift = Math.max(0, (bucket >>> (SUB_BUCKET_BITS - 1)) - 1);
+            long subBucket = bucket - ((long) shift << (SUB_BUCKET_BITS - 1));
+            return ((subBucket + 1) << shift) - 1;
+        }
+
+        public long count() {
+            return count;
+        }
+
+        public long min() {
+            return count == 0 ? 0 : min;
+        }
+
+        public long max() {
+            return max;
+        }
+
+        public double mean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * @return The sample standard deviation, 0 with fewer than two runs.
+         */
+        public double stdDev() {
+            if (count < 2) {
+                return 0;
+            }
+            double mean = mean();
+            return Math.sqrt(Math.max(0, (sumOfSquares - count * mean * mean) / (count - 1)));
+        }
+
+        /**
+         * @param percentile From 0 to 100, 50 is the median.
+         * @return The largest value in the bucket holding the percentile, at most max().
+         */
+        public long percentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("percentile must be in [0, 100]: " + percentile);
+            }
+            if (count == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100 * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(highestValueIn(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * @return Half the width of the 95% confidence interval of the mean, from Student's t.
+         */
+        public double confidence95() {
+            if (count < 2) {
+                return Double.POSITIVE_INFINITY;
+            }
+            return tQuantile975(count - 1) * stdDev() / Math.sqrt(count);
+        }
+
+        /**
+         * Welch's t-test of whether two histograms have different means at the 5% level. Unlike
+         * Student's test it does not assume both have the same variance, which sorts of different
+         * complexity do not.
+         * @param other The runs to compare with.
+         * @return Whether the means are statistically distinguishable.
+         */
+        public boolean distinguishableFrom(LatencyHistogram other) {
+            if (count < 2 || other.count < 2) {
+                return false;
+            }
+            double varianceA = stdDev() * stdDev() / count;
+            double varianceB = other.stdDev() * other.stdDev() / other.count;
+            double error = varianceA + varianceB;
+            if (error == 0) {
+                return mean() != other.mean();
+            }
+            double t = Math.abs(mean() - other.mean()) / Math.sqrt(error);
+            // Welch-Satterthwaite degrees of freedom
+            double df = error * error / (varianceA * varianceA / (count - 1)
+                    + varianceB * varianceB / (other.count - 1));
+            return t > tQuantile975(df);
+        }
+
+        /**
+         * @return The 97.5% quantile of Student's t, from the table up to 30 degrees of freedom
+         *         and from the Cornish-Fisher expansion of the normal quantile above that.
+         */
+        private static double tQuantile975(double df) {
+            if (df < 1) {
+                return T_975[0];
+            }
+            if (df <= T_975.length) {
+                return T_975[(int) df - 1];
+            }
+            double z = 1.959964;
+            return z + (z * z * z + z) / (4 * df) + (5 * Math.pow(z, 5) + 16 * z * z * z + 3 * z) / (96 * df * df);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %s p90 %s p99 %s max %s sd %s mean %s +/- %s (95%%)",
+                    formatNanos(percentile(50)), formatNanos(percentile(90)), formatNanos(percentile(99)),
+                    formatNanos(max()), formatNanos(stdDev()), formatNanos(mean()), formatNanos(confidence95()));
+        }
+
+        private static String formatNanos(double nanos) {
+            if (nanos >= 1e6) {
+                return String.format("%,.3f ms", nanos / 1e6);
+            }
+            if (nanos >= 1e3) {
+                return String.format("%,.3f us", nanos / 1e3);
+            }
+            return String.format("%,.0f ns", nanos);
+        }
+    }
+
+    /**
+     * ---------------------------- Results Export ---------------------------------------
+     * Results of the assignment run and the benchmark suite in one shape, written as CSV, JSON
+     * or a compact binary file chosen by the file extension, and read back by --compare.
+     */
+
+    // First bytes of a binary results file, the last byte is the format version
+    private static final int RESULTS_MAGIC = 0x534F5201; // "SOR" 1
+    // Default slowdown --compare allows before it fails, in percent
+    private static final double DEFAULT_REGRESSION_THRESHOLD = 10;
+    private static final String RESULTS_CSV_HEADER =
+            "benchmark,dataset,size,jvm,runs,mean,stdDev,ci95,p50,p90,p99,max,ops,checksum";
+    // A JSON value as the writers here write it: a string, a number as Double.toString prints
+    // it, null or a flat array of numbers
+    private static final String JSON_VALUE = "\"(?:[^\"\\\\]|\\\\.)*\"|-?(?:\\d+(?:\\.\\d+)?(?:[eE][-+]?\\d+)?|Infinity)"
+            + "|NaN|null|\\[[^\\[\\]]*\\]";
+    // One "key": value pair of a JSON line
+    private static final Pattern JSON_FIELD = Pattern.compile("\"(\\w+)\": (" + JSON_VALUE + ")");
+    // A line of a JSON results file outside the results array, {, } or one "key": value pair
+    private static final Pattern JSON_HEADER_LINE =
+            Pattern.compile("\\s*(?:\\{|\\}|\"\\w+\": (?:" + JSON_VALUE + "),?)\\s*");
+    // One result, an object of "key": value pairs on a line of its own
+    private static final Pattern JSON_RESULT_LINE = Pattern.compile("\\s*\\{\"\\w+\": (?:" + JSON_VALUE
+            + ")(?:, \"\\w+\": (?:" + JSON_VALUE + "))*\\},?\\s*");
+    // Fields every CSV results line has
+    private static final int RESULTS_CSV_FIELDS = RESULTS_CSV_HEADER.split(",").length;
+
+    /**
+     * The time statistics of one algorithm on one input. Times are in ns per operation.
+     */
+    static class ResultRecord {
+        String benchmark;   // Name of the sort method or search
+        String dataset;     // ArrayPattern of the input
+        int size;           // Array size
+        String jvm = System.getProperty("java.vm.version"); // JVM the result was measured on
+        long runs;          // Number of timed runs or iterations
+        double mean;
+        double stdDev;
+        double ci95;        // Half width of the 95% confidence interval of the mean
+        double p50;
+        double p90;
+        double p99;
+        double max;
+        double ops;         // Average operation count per operation
+        int checksum;       // ckSumSorted of the output, -1 if the output was not sorted
+        LatencyHistogram runTimes; // Every run, null for records read from a file
+
+        /**
+         * @return The record of a benchmark result, its percentiles are taken over the iterations.
+         */
+        static ResultRecord of(BenchResult result) {
+            LatencyHistogram scores = new LatencyHistogram();
+            for (double score : result.scores) {
+                scores.record(Math.round(score));
+            }
+            ResultRecord record = of(result.benchmark, result.dataset, result.size, scores, result.ops, result.checksum);
+            // The scores are fractions of a ns, keep their exact mean and spread
+            record.mean = result.mean();
+            record.stdDev = result.stdDev();
+            record.max = result.max();
+            return record;
+        }
+
+        static ResultRecord of(String benchmark, String dataset, int size, LatencyHistogram runTimes,
+                               double ops, int checksum) {
+            ResultRecord record = new ResultRecord();
+            record.benchmark = benchmark;
+            record.dataset = dataset;
+            record.size = size;
+            record.runs = runTimes.count();
+            record.mean = runTimes.mean();
+            record.stdDev = runTimes.stdDev();
+            record.ci95 = runTimes.confidence95();
+            record.p50 = runTimes.percentile(50);
+            record.p90 = runTimes.percentile(90);
+            record.p99 = runTimes.percentile(99);
+            record.max = runTimes.max();
+            record.ops = ops;
+            record.checksum = checksum;
+            record.runTimes = runTimes;
+            return record;
+        }
+
+        String key() {
+            return benchmark + " " + dataset + " " + size;
+        }
+    }
+
+    /**
+     * Writes results in the format named by the file extension: .csv, .json or .bin
+     * @param file The file to write
+     * @param records The results
+     */
+    private static void writeResults(Path file, List<ResultRecord> records) throws IOException {
+        String name = file.getFileName().toString();
+        if (name.endsWith(".bin")) {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+                out.writeInt(RESULTS_MAGIC);
+                out.writeInt(records.size());
+                for (ResultRecord record : records) {
+                    out.writeUTF(record.benchmark);
+                    out.writeUTF(record.dataset);
+                    out.writeInt(record.size);
+                    out.writeUTF(record.jvm);
+                    out.writeLong(record.runs);
+                    for (double value : new double[] {record.mean, record.stdDev, record.ci95, record.p50,
+                            record.p90, record.p99, record.max, record.ops}) {
+                        out.writeDouble(value);
+                    }
+                    out.writeInt(record.checksum);
+                }
+            }
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        boolean json = name.endsWith(".json");
+        if (json) {
+            text.append("{\n  \"results\": [");
+        } else {
+            text.append(RESULTS_CSV_HEADER).append('\n');
+        }
+        for (int i = 0; i < records.size(); i++) {
+            ResultRecord record = records.get(i);
+            if (json) {
+                // The first fields match the --bench output, readResults reads both the same way
+                text.append(i == 0 ? "\n" : ",\n");
+                text.append("    {\"benchmark\": ").append(jsonString(record.benchmark));
+                text.append(", \"dataset\": ").append(jsonString(record.dataset));
+                text.append(", \"size\": ").append(record.size);
+                text.append(", \"unit\": \"ns/op\"");
+                text.append(", \"score\": ").append(record.mean);
+                text.append(", \"error\": ").append(record.stdDev);
+                // JSON has no infinity, the interval of a single run is written as null
+                text.append(", \"ci95\": ").append(Double.isInfinite(record.ci95) ? "null" : record.ci95);
+                text.append(", \"p50\": ").append(record.p50);
+                text.append(", \"p90\": ").append(record.p90);
+                text.append(", \"p99\": ").append(record.p99);
+                text.append(", \"max\": ").append(record.max);
+                text.append(", \"runs\": ").append(record.runs);
+                text.append(", \"ops\": ").append(record.ops);
+                text.append(", \"checksum\": ").append(record.checksum);
+                text.append(", \"jvm\": ").append(jsonString(record.jvm)).append('}');
+            } else {
+                text.append(csvField(record.benchmark)).append(',').append(csvField(record.dataset))
+                        .append(',').append(record.size).append(',').append(csvField(record.jvm))
+                        .append(',').append(record.runs)
+                        .append(',').append(record.mean).append(',').append(record.stdDev)
+                        .append(',').append(record.ci95).append(',').append(record.p50)
+                        .append(',').append(record.p90).append(',').append(record.p99)
+                        .append(',').append(record.max).append(',').append(record.ops)
+                        .append(',').append(record.checksum).append('\n');
+            }
+        }
+        if (json) {
+            text.append("\n  ]\n}\n");
+        }
+        Files.writeString(file, text.toString());
+    }
+
+    /**
+     * Reads a file written by writeResults, or the JSON written by --bench and --sweep. A line
+     * that is not in the shape those write fails the read instead of being skipped.
+     * @param file A .csv, .json or .bin results file
+     * @return The results in file order
+     * @throws IOException If the file cannot be read or is not a results file
+     */
+    private static List<ResultRecord> readResults(Path file) throws IOException {
+        List<ResultRecord> records = new ArrayList<>();
+        String name = file.getFileName().toString();
+        if (name.endsWith(".bin")) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                if (in.readInt() != RESULTS_MAGIC) {
+                    throw new IOException(file + " is not a binary results file");
+                }
+                int count = in.readInt();
+                for (int i = 0; i < count; i++) {
+                    ResultRecord record = new ResultRecord();
+                    record.benchmark = in.readUTF();
+                    record.dataset = in.readUTF();
+                    record.size = in.readInt();
+                    record.jvm = in.readUTF();
+                    record.runs = in.readLong();
+                    record.mean = in.readDouble();
+                    record.stdDev = in.readDouble();
+                    record.ci95 = in.readDouble();
+                    record.p50 = in.readDouble();
+                    record.p90 = in.readDouble();
+                    record.p99 = in.readDouble();
+                    record.max = in.readDouble();
+                    record.ops = in.readDouble();
+                    record.checksum = in.readInt();
+                    records.add(record);
+                }
+            }
+            return records;
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        if (name.endsWith(".json")) {
+            return readJsonResults(file, lines);
+        }
+        if (lines.isEmpty() || !lines.get(0).equals(RESULTS_CSV_HEADER)) {
+            throw new IOException(file + " is not a results CSV file");
+        }
+        for (int i = 1; i < lines.size(); i++) {
+            if (lines.get(i).isBlank()) {
+                continue;
+            }
+            try {
+                List<String> parts = csvFields(lines.get(i));
+                if (parts.size() != RESULTS_CSV_FIELDS) {
+                    throw new IllegalArgumentException(parts.size() + " fields, expected " + RESULTS_CSV_FIELDS);
+                }
+                ResultRecord record = new ResultRecord();
+                record.benchmark = parts.get(0);
+                record.dataset = parts.get(1);
+                record.size = Integer.parseInt(parts.get(2));
+                record.jvm = parts.get(3);
+                record.runs = Long.parseLong(parts.get(4));
+                record.mean = Double.parseDouble(parts.get(5));
+                record.stdDev = Double.parseDouble(parts.get(6));
+                record.ci95 = Double.parseDouble(parts.get(7));
+                record.p50 = Double.parseDouble(parts.get(8));
+                record.p90 = Double.parseDouble(parts.get(9));
+                record.p99 = Double.parseDouble(parts.get(10));
+                record.max = Double.parseDouble(parts.get(11));
+                record.ops = Double.parseDouble(parts.get(12));
+                record.checksum = Integer.parseInt(parts.get(13));
+                records.add(record);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Reads the JSON written by writeResults, --bench and --sweep: a header of "key": value
+     * lines, then a "results" array with one object per line. Any other line, a result without
+     * its benchmark, dataset, size or score, or a field of the wrong type fails the read.
+     * @param file The file, for the error messages
+     * @param lines The lines of the file
+     * @return The results in file order
+     */
+    private static List<ResultRecord> readJsonResults(Path file, List<String> lines) throws IOException {
+        List<ResultRecord> records = new ArrayList<>();
+        // 0 before the results array, 1 inside it and 2 after it
+        int part = 0;
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            try {
+                if (line.isBlank()) {
+                    continue;
+                }
+                if (part == 0 && line.trim().equals("\"results\": [")) {
+                    part = 1;
+                } else if (part == 1 && line.trim().equals("]")) {
+                    part = 2;
+                } else if (part == 1 && JSON_RESULT_LINE.matcher(line).matches()) {
+                    records.add(jsonResult(line));
+                } else if (!(part == 0 && JSON_HEADER_LINE.matcher(line).matches()
+                        || part == 2 && line.trim().equals("}"))) {
+                    throw new IllegalArgumentException("unexpected " + (part == 1 ? "result " : "line ") + line.trim());
+                }
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file + " line " + (i + 1) + ": " + e.getMessage(), e);
+            }
+        }
+        if (part != 2) {
+            throw new IOException(file + " has no complete \"results\" array");
+        }
+        return records;
+    }
+
+    /**
+     * @param line A line that matches JSON_RESULT_LINE.
+     * @return The result, with the fields --bench does not write left at 0.
+     */
+    private static ResultRecord jsonResult(String line) {
+        Map<String, String> fields = new HashMap<>();
+        Matcher matcher = JSON_FIELD.matcher(line);
+        while (matcher.find()) {
+            if (fields.put(matcher.group(1), matcher.group(2)) != null) {
+                throw new IllegalArgumentException("repeated field " + matcher.group(1));
+            }
+        }
+        ResultRecord record = new ResultRecord();
+        record.benchmark = jsonText(fields, "benchmark", null);
+        record.dataset = jsonText(fields, "dataset", null);
+        double size = jsonNumber(fields, "size", null);
+        if (size != (int) size) {
+            throw new IllegalArgumentException("size is not an int: " + fields.get("size"));
+        }
+        record.size = (int) size;
+        record.jvm = jsonText(fields, "jvm", "");
+        // --bench results have no runs, ci95 or percentiles, those read as 0
+        record.runs = (long) jsonNumber(fields, "runs", 0.0);
+        record.mean = jsonNumber(fields, "score", null);
+        record.stdDev = jsonNumber(fields, "error", 0.0);
+        // JSON has no infinity, the interval of a single run is written as null
+        record.ci95 = fields.containsKey("ci95") && fields.get("ci95").equals("null")
+                ? Double.POSITIVE_INFINITY : jsonNumber(fields, "ci95", 0.0);
+        record.p50 = jsonNumber(fields, "p50", 0.0);
+        record.p90 = jsonNumber(fields, "p90", 0.0);
+        record.p99 = jsonNumber(fields, "p99", 0.0);
+        record.max = jsonNumber(fields, "max", 0.0);
+        record.ops = jsonNumber(fields, "ops", 0.0);
+        record.checksum = (int) jsonNumber(fields, "checksum", -1.0);
+        return record;
+    }
+
+    /**
+     * @param fallback The value of a missing field, or null if the field is required.
+     * @return The number in a field.
+     */
+    private static double jsonNumber(Map<String, String> fields, String key, Double fallback) {
+        String value = fields.get(key);
+        if (value == null && fallback != null) {
+            return fallback;
+        }
+        if (value == null || value.startsWith("\"") || value.startsWith("[") || value.equals("null")) {
+            throw new IllegalArgumentException(key + " is " + (value == null ? "missing" : "not a number: " + value));
+        }
+        return Double.parseDouble(value);
+    }
+
+    /**
+     * @param fallback The value of a missing field, or null if the field is required.
+     * @return The string in a field, with its escapes undone.
+     */
+    private static String jsonText(Map<String, String> fields, String key, String fallback) {
+        String value = fields.get(key);
+        if (value == null && fallback != null) {
+            return fallback;
+        }
+        if (value == null || !value.startsWith("\"")) {
+            throw new IllegalArgumentException(key + " is " + (value == null ? "missing" : "not a string: " + value));
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i < value.length() - 1; i++) {
+            char c = value.charAt(i);
+            if (c != '\\') {
+                text.append(c);
+                continue;
+            }
+            c = value.charAt(++i);
+            switch (c) {
+                case 'b' -> text.append('\b');
+                case 'f' -> text.append('\f');
+                case 'n' -> text.append('\n');
+                case 'r' -> text.append('\r');
+                case 't' -> text.append('\t');
+                case 'u' -> {
+                    if (i + 4 >= value.length()) {
+                        throw new IllegalArgumentException("bad escape in " + key + ": " + value);
+                    }
+                    text.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+                    i += 4;
+                }
+                case '"', '\\', '/' -> text.append(c);
+                default -> throw new IllegalArgumentException("bad escape in " + key + ": " + value);
+            }
+        }
+        return text.toString();
+    }
+
+    /**
+     * @return The text as a JSON string, quoted, with quotes, backslashes and control
+     *         characters escaped.
+     */
+    private static String jsonString(String text) {
+        StringBuilder json = new StringBuilder(text.length() + 2).append('"');
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < ' ') {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Quotes a CSV field that holds a comma, a quote or spaces at either end, doubling its
+     * quotes, the way RFC 4180 does. A results file has one record per line, so a line break
+     * is rejected instead.
+     * @param text The field
+     * @return The field as it goes in the file
+     */
+    private static String csvField(String text) {
+        if (text.indexOf('\n') >= 0 || text.indexOf('\r') >= 0) {
+            throw new IllegalArgumentException("A CSV field cannot hold a line break: " + text);
+        }
+        if (text.indexOf(',') < 0 && text.indexOf('"') < 0 && text.strip().equals(text)) {
+            return text;
+        }
+        return '"' + text.replace("\"", "\"\"") + '"';
+    }
+
+    /**
+     * Splits a CSV line written by csvField, removing the quotes around a field and undoing
+     * its doubled quotes.
+     * @param line One line of a CSV file
+     * @return The fields
+     */
+    private static List<String> csvFields(String line) {
+        List<String> fields = new ArrayList<>();
+        int i = 0;
+        while (true) {
+            StringBuilder field = new StringBuilder();
+            if (i < line.length() && line.charAt(i) == '"') {
+                int close;
+                for (i++; ; i = close + 2) {
+                    close = line.indexOf('"', i);
+                    if (close < 0) {
+                        throw new IllegalArgumentException("unterminated quote in " + line);
+                    }
+                    field.append(line, i, close);
+                    if (close + 1 == line.length() || line.charAt(close + 1) != '"') {
+                        break;
+                    }
+                    field.append('"');
+                }
+                i = close + 1;
+                if (i < line.length() && line.charAt(i) != ',') {
+                    throw new IllegalArgumentException("text after a closing quote in " + line);
+                }
+            } else {
+                int comma = line.indexOf(',', i);
+                int end = comma < 0 ? line.length() : comma;
+                field.append(line, i, end);
+                if (field.indexOf("\"") >= 0) {
+                    throw new IllegalArgumentException("quote in an unquoted field in " + line);
+                }
+                i = end;
+            }
+            fields.add(field.toString());
+            if (i == line.length()) {
+                return fields;
+            }
+            i++; // The comma
+        }
+    }
+
+    /**
+     * Compares results with a baseline. A result regresses when its mean is more than the
+     * threshold slower than the baseline and the gap is wider than both confidence intervals
+     * together, so noise alone does not fail a deploy. A changed checksum also fails. A baseline
+     * mean that is zero or missing gives no ratio, such results are listed as incomparable.
+     * @param baseline The earlier results
+     * @param current The new results
+     * @param thresholdPercent The slowdown allowed, in percent of the baseline mean
+     * @return The number of regressions
+     */
+    private static int compareResults(List<ResultRecord> baseline, List<ResultRecord> current,
+                                      double thresholdPercent) {
+        if (thresholdPercent < 0) {
+            throw new IllegalArgumentException("threshold must not be negative: " + thresholdPercent);
+        }
+        Map<String, ResultRecord> byKey = new HashMap<>();
+        for (ResultRecord record : baseline) {
+            byKey.put(record.key(), record);
+        }
+        System.out.printf("%-15s%-20s%10s%16s%16s%10s  %s\n",
+                "Benchmark", "Dataset", "Size", "Baseline", "Current", "Change", "Verdict");
+        int regressions = 0;
+        int incomparable = 0;
+        for (ResultRecord now : current) {
+            ResultRecord before = byKey.remove(now.key());
+            if (before == null) {
+                System.out.printf("%-15s%-20s%,10d%16s%,16.1f%10s  new\n", now.benchmark, now.dataset, now.size,
+                        "-", now.mean, "");
+                continue;
+            }
+            if (now.checksum == before.checksum && !(before.mean > 0 && Double.isFinite(before.mean))) {
+                incomparable++;
+                System.out.printf("%-15s%-20s%,10d%,16.1f%,16.1f%10s  incomparable, no baseline mean\n",
+                        now.benchmark, now.dataset, now.size, before.mean, now.mean, "-");
+                continue;
+            }
+            double change = (now.mean - before.mean) / before.mean * 100;
+            // Unknown intervals, as in --bench files, count as 0 so only the threshold applies
+            double noise = finiteOrZero(before.ci95) + finiteOrZero(now.ci95);
+            String verdict;
+            if (now.checksum != before.checksum) {
+                verdict = "CHECKSUM CHANGED";
+                regressions++;
+            } else if (change > thresholdPercent && now.mean - before.mean > noise) {
+                verdict = "REGRESSION";
+                regressions++;
+            } else if (change > thresholdPercent) {
+                verdict = "slower, within noise";
+            } else {
+                verdict = "ok";
+            }
+            System.out.printf("%-15s%-20s%,10d%,16.1f%,16.1f%+9.1f%%  %s\n", now.benchmark, now.dataset, now.size,
+                    before.mean, now.mean, change, verdict);
+        }
+        for (ResultRecord missing : byKey.values()) {
+            System.out.printf("%-15s%-20s%,10d%,16.1f%16s%10s  missing\n", missing.benchmark, missing.dataset,
+                    missing.size, missing.mean, "-", "");
+        }
+        System.out.printf("%d regression(s) above %.1f%%\n", regressions, thresholdPercent);
+        if (incomparable > 0) {
+            System.out.printf("%d result(s) had no baseline mean to compare with\n", incomparable);
+        }
+        return regressions;
+    }
+
+    private static double finiteOrZero(double value) {
+        return Double.isFinite(value) ? value : 0;
+    }
+
+    /**
+     * ---------------------------- Benchmark Suite ---------------------------------------
+     */
+
+    // Seed used for the benchmark data, the same one main uses for part 1
+    private static final long BENCH_SEED = 886545;
+    // Array sizes benchmarked by default, the same sizes main uses for part 1
+    private static final int[] BENCH_SIZES = {20, 400, 8000};
+    // Number of lookups timed together in one binary search invocation
+    private static final int SEARCH_BATCH = 1024;
+    // Names of the search benchmarks, the recursive original first
+    private static final String[] SEARCH_BENCHES = {
+            "BinarySearchR", "BinarySearch", "SearchBatch", "Eytzinger", "EytzingerBatch"
+    };
+    // Names of the selection benchmarks, the median and the top TOP_K values
+    private static final String[] SELECT_BENCHES = {"NthElement", "PartialSort", "TopK"};
+    // Number of values the PartialSort and TopK benchmarks select
+    private static final int TOP_K = 100;
+
+    // Every timed result is written here so the JIT cannot remove the work as dead code
+    private static volatile long blackhole;
+
+    /**
+     * Settings for a benchmark run, named after the JMH options they copy
+     */
+    static class BenchConfig {
+        int warmupIterations = 5;       // Iterations run and thrown away before measuring
+        int measurementIterations = 10; // Iterations that are recorded
+        long iterationMillis = 200;     // Wall time spent in each iteration
+        int forks = 1;                  // Fresh JVMs per benchmark, 0 runs in this JVM
+        int[] sizes = BENCH_SIZES;      // Array sizes to benchmark
+        ArrayPattern[] patterns = {ArrayPattern.RANDOM}; // Input shapes to benchmark
+        String output = "bench.json";   // File the JSON results are written to
+        int[] queries = BREAK_EVEN_QUERIES; // Query counts modelled by --break-even
+        String sort = "Merge";          // Sort method --break-even builds the index with
+        List<String> benchmarks = benchmarkNames(); // Benchmarks to run
+        int threads = Runtime.getRuntime().availableProcessors(); // Jobs --sweep runs at once
+        boolean pin = false;            // Pin every --sweep job to its own CPU with taskset
+        long budgetMillis = 0;          // Wall time limit of one --sweep job, 0 for none
+        int quadraticCap = QUADRATIC_SIZE_CAP; // Largest size --sweep runs the O(n^2) sorts at
+    }
+
+    /**
+     * The measured result of one benchmark at one array size
+     */
+    static class BenchResult {
+        String benchmark;  // Name of the sort method or search
+        int size;          // Array size
+        String dataset;    // ArrayPattern of the input
+        double[] scores;   // Average ns per operation of every measured iteration from every fork
+        double ops;        // Average operation count reported per operation
+        int checksum;      // ckSumSorted of the output, -1 if the output was not sorted
+        SortStats stats;   // Counters of one operation, only with -Dsorts.stats=true
+
+        double mean() {
+            if (scores.length == 0) {
+                return 0;
+            }
+            double sum = 0;
+            for (double score : scores) {
+                sum += score;
+            }
+            return sum / scores.length;
+        }
+
+        double stdDev() {
+            if (scores.length < 2) {
+                return 0;
+            }
+            double mean = mean();
+            double sum = 0;
+            for (double score : scores) {
+                sum += (score - mean) * (score - mean);
+            }
+            return Math.sqrt(sum / (scores.length - 1));
+        }
+
+        double min() {
+            if (scores.length == 0) {
+                return 0;
+            }
+            double min = scores[0];
+            for (double score : scores) {
+                min = Math.min(min, score);
+            }
+            return min;
+        }
+
+        double max() {
+            if (scores.length == 0) {
+                return 0;
+            }
+            double max = scores[0];
+            for (double score : scores) {
+                max = Math.max(max, score);
+            }
+            return max;
+        }
+    }
+
+    /**
+     * One benchmark prepared for one array. setup() runs before every invocation
+     * and is not timed, invoke() is the timed part.
+     */
+    interface BenchState {
+        /** Reset the input so the next invocation starts from the same data */
+        void setup();
+
+        /** The timed work, returns the operation count it reported */
+        long invoke();
+
+        /** How many operations a single invoke() performs */
+        int batchSize();
+
+        /** ckSumSorted of the data the benchmark left behind */
+        int checksum();
+
+        /** Runs one untimed operation and returns its counters, null if it has none */
+        default SortStats collectStats() {
+            return null;
+        }
+    }
+
+    /**
+     * Lists every benchmark in the suite, all the sort methods followed by the searches and selections
+     * @return The benchmark names
+     */
+    private static List<String> benchmarkNames() {
+        List<String> names = new ArrayList<>(List.of(sortNames));
+        names.addAll(List.of(SEARCH_BENCHES));
+        names.addAll(List.of(SELECT_BENCHES));
+        return names;
+    }
+
+    /**
+     * Builds the state for one benchmark
+     * @param benchmark The benchmark name, one of benchmarkNames()
+     * @param data The unsorted input, it is never modified
+     * @return The prepared benchmark
+     */
+    private static BenchState prepareBenchmark(String benchmark, int[] data) {
+        for (int i = 0; i < sortNames.length; i++) {
+            if (sortNames[i].equals(benchmark)) {
+                return sortBenchState(sortMethods[i], data);
+            }
+        }
+        if (List.of(SEARCH_BENCHES).contains(benchmark)) {
+            return binarySearchBenchState(benchmark, data);
+        }
+        if (List.of(SELECT_BENCHES).contains(benchmark)) {
+            return selectBenchState(benchmark, data);
+        }
+        throw new IllegalArgumentException("Unknown benchmark: " + benchmark);
+    }
+
+    private static BenchState sortBenchState(SortMethod sortMethod, int[] data) {
+        int[] work = new int[data.length]; // Allocated once so setup() does not allocate
+        SortStats timedStats = SortStats.ignored(); // Also allocated once, its counts are not reported
+        return new BenchState() {
+            public void setup() {
+                System.arraycopy(data, 0, work, 0, data.length);
+            }
+
+            public long invoke() {
+                return sortMethod.sort(work, timedStats);
+            }
+
+            public SortStats collectStats() {
+                if (!SortStats.ENABLED) {
+                    return null;
+                }
+                SortStats stats = new SortStats();
+                setup();
+                sortMethod.sort(work, stats);
+                return stats;
+            }
+
+            public int batchSize() {
+                return 1;
+            }
+
+            public int checksum() {
+                return ckSumSorted(work);
+            }
+        };
+    }
+
+    private static BenchState selectBenchState(String benchmark, int[] data) {
+        int[] work = new int[data.length];
+        int k = benchmark.equals("NthElement") ? data.length / 2 : Math.min(TOP_K, data.length);
+        // The answer in ascending order, checked against a full sort
+        int[] sorted = data.clone();
+        radixSort(sorted);
+        int[] expected = benchmark.equals("NthElement") ? new int[] {sorted[k]}
+                : benchmark.equals("PartialSort") ? Arrays.copyOf(sorted, k)
+                : Arrays.copyOfRange(sorted, data.length - k, data.length);
+        int[][] top = new int[1][]; // Last TopK result
+        return new BenchState() {
+            public void setup() {
+                System.arraycopy(data, 0, work, 0, data.length);
+            }
+
+            public long invoke() {
+                switch (benchmark) {
+                    case "NthElement" -> {
+                        return nthElement(work, k);
+                    }
+                    case "PartialSort" -> {
+                        return partialSort(work, k);
+                    }
+                    default -> {
+                        TopK topK = new TopK(k);
+                        topK.addAll(work, 0, work.length);
+                        top[0] = topK.toArray();
+                        return topK.comparisons();
+                    }
+                }
+            }
+
+            public SortStats collectStats() {
+                if (!SortStats.ENABLED) {
+                    return null;
+                }
+                SortStats stats = new SortStats();
+                setup();
+                switch (benchmark) {
+                    case "NthElement" -> nthElement(work, k, stats);
+                    case "PartialSort" -> partialSort(work, k, stats);
+                    default -> stats.compares = invoke();
+                }
+                return stats;
+            }
+
+            public int batchSize() {
+                return 1;
+            }
+
+            public int checksum() {
+                int[] answer = switch (benchmark) {
+                    case "NthElement" -> new int[] {work[k]};
+                    case "PartialSort" -> Arrays.copyOf(work, k);
+                    default -> {
+                        int[] reversed = new int[k];
+                        for (int i = 0; i < k; i++) {
+                            reversed[i] = top[0][k - 1 - i];
+                        }
+                        yield reversed;
+                    }
+                };
+                return k == 0 || !Arrays.equals(answer, expected) ? -1 : ckSumSorted(answer);
+            }
+        };
+    }
+
+    private static BenchState binarySearchBenchState(String benchmark, int[] data) {
+        int[] sorted = data.clone();
+        mergeSort(sorted);
+        // Look up values that are in the array, in a fixed random order
+        Random rand = new Random(BENCH_SEED);
+        int[] keys = new int[SEARCH_BATCH];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = sorted[rand.nextInt(sorted.length)];
+        }
+        int[] results = new int[SEARCH_BATCH];
+        SortBuffers buffers = new SortBuffers();
+        EytzingerIndex index = new EytzingerIndex(sorted);
+        // The iterative searches do not count, every lookup takes the same log2(n) + 1 steps
+        long steps = (long) SEARCH_BATCH * (32 - Integer.numberOfLeadingZeros(sorted.length));
+        return new BenchState() {
+            public void setup() {
+                // The sorted array is only read, nothing to reset
+            }
+
+            public long invoke() {
+                long count = 0;
+                switch (benchmark) {
+                    case "BinarySearchR" -> {
+                        for (int key : keys) {
+                            int[] result = binarySearchR(sorted, 0, sorted.length - 1, key, 0);
+                            count += result[1];
+                        }
+                        return count;
+                    }
+                    case "BinarySearch" -> {
+                        for (int key : keys) {
+                            count += binarySearch(sorted, key);
+                        }
+                    }
+                    case "SearchBatch" -> {
+                        binarySearchBatch(sorted, keys, results, buffers);
+                        count = results[0];
+                    }
+                    case "Eytzinger" -> {
+                        for (int key : keys) {
+                            count += index.search(key);
+                        }
+                    }
+                    default -> {
+                        index.searchBatch(keys, results);
+                        count = results[0];
+                    }
+                }
+                blackhole = count;
+                return steps;
+            }
+
+            public int batchSize() {
+                return SEARCH_BATCH;
+            }
+
+            public int checksum() {
+                return ckSumSorted(sorted);
+            }
+        };
+    }
+
+    /**
+     * Runs invocations until the iteration time is used up. Only the invoke() calls are timed.
+     * @param state The benchmark to run
+     * @param iterationNanos Wall time to spend in the iteration
+     * @return {average ns per operation, average operation count per operation}
+     */
+    private static double[] runIteration(BenchState state, long iterationNanos) {
+        long measured = 0;    // Time spent inside invoke()
+        long totalOps = 0;    // Sum of the operation counts
+        long invocations = 0; // Number of invoke() calls
+        long deadline = System.nanoTime() + iterationNanos;
+        do {
+            state.setup();
+            long start = System.nanoTime();
+            long ops = state.invoke();
+            long end = System.nanoTime();
+            blackhole = ops;
+            measured += (end - start);
+            totalOps += ops;
+            invocations++;
+        } while (System.nanoTime() < deadline);
+
+        double operations = invocations * (double) state.batchSize();
+        return new double[] {measured / operations, totalOps / operations};
+    }
+
+    /**
+     * Warms up and measures one benchmark in this JVM
+     * @param benchmark The benchmark name
+     * @param size The array size
+     * @param pattern The shape of the input
+     * @param config The iteration settings
+     * @return The result of the measured iterations
+     */
+    private static BenchResult measureBenchmark(String benchmark, int size, ArrayPattern pattern,
+                                                BenchConfig config) {
+        BenchState state = prepareBenchmark(benchmark, generateArray(BENCH_SEED, size, pattern));
+        long iterationNanos = config.iterationMillis * 1_000_000L;
+        for (int i = 0; i < config.warmupIterations; i++) {
+            runIteration(state, iterationNanos);
+        }
+        BenchResult result = new BenchResult();
+        result.benchmark = benchmark;
+        result.size = size;
+        result.dataset = pattern.name();
+        result.scores = new double[config.measurementIterations];
+        for (int i = 0; i < config.measurementIterations; i++) {
+            double[] iteration = runIteration(state, iterationNanos);
+            result.scores[i] = iteration[0];
+            result.ops += iteration[1] / config.measurementIterations;
+        }
+        result.checksum = state.checksum();
+        result.stats = state.collectStats();
+        return result;
+    }
+
+    /**
+     * Measures one benchmark in config.forks fresh JVMs and combines their iterations,
+     * so JIT decisions made for one benchmark do not leak into the next
+     * @param benchmark The benchmark name
+     * @param size The array size
+     * @param pattern The shape of the input
+     * @param config The iteration and fork settings
+     * @return The combined result of every fork
+     */
+    private static BenchResult forkBenchmark(String benchmark, int size, ArrayPattern pattern, BenchConfig config)
+            throws IOException, InterruptedException {
+        if (config.forks == 0) {
+            return measureBenchmark(benchmark, size, pattern, config);
+        }
+        if (forkLaunchArgs() == null) {
+            // Only this serial path may fall back, the sweep needs every job in its own JVM
+            System.err.println("WARNING: cannot find this program to fork, measuring " + benchmark + " size " + size
+                    + " " + pattern + " in this JVM instead");
+            return measureBenchmark(benchmark, size, pattern, config);
+        }
+        return forkBenchmark(benchmark, size, pattern, config, -1, 0);
+    }
+
+    /**
+     * Measures one benchmark in config.forks fresh JVMs, optionally pinned and under a time limit
+     * @param benchmark The benchmark name
+     * @param size The array size
+     * @param pattern The shape of the input
+     * @param config The iteration and fork settings
+     * @param cpu The CPU to run the forks on with taskset, -1 to let the OS choose
+     * @param budgetMillis Wall time allowed for all the forks together, 0 for no limit
+     * @return The combined result of every fork, or null if the time ran out
+     */
+    private static BenchResult forkBenchmark(String benchmark, int size, ArrayPattern pattern, BenchConfig config,
+                                             int cpu, long budgetMillis) throws IOException, InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        String java = ProcessHandle.current().info().command().orElse("java");
+        List<String> launch = forkLaunchArgs();
+        if (launch == null) {
+            throw new IllegalStateException("Cannot find this program to fork " + benchmark + " size " + size
+                    + " " + pattern + ", run it from its source file or a class path");
+        }
+        BenchResult combined = new BenchResult();
+        combined.benchmark = benchmark;
+        combined.size = size;
+        combined.dataset = pattern.name();
+        combined.scores = new double[0];
+        for (int fork = 0; fork < config.forks; fork++) {
+            List<String> command = new ArrayList<>();
+            if (cpu >= 0) {
+                command.addAll(List.of("taskset", "-c", Integer.toString(cpu)));
+            }
+            command.add(java);
+            command.add("-Dsorts.stats=" + SortStats.ENABLED);
+            if (WORKLOAD_CACHE != null) {
+                command.add("-Dsorts.cache=" + WORKLOAD_CACHE);
+            }
+            command.addAll(launch);
+            command.addAll(List.of("--bench-fork", benchmark, Integer.toString(size), pattern.name(),
+                    Integer.toString(config.warmupIterations),
+                    Integer.toString(config.measurementIterations),
+                    Long.toString(config.iterationMillis)));
+            Process process = new ProcessBuilder(command)
+                    .redirectError(ProcessBuilder.Redirect.INHERIT)
+                    .start();
+            AtomicBoolean killed = new AtomicBoolean();
+            if (budgetMillis > 0) {
+                // Kill the fork when the budget runs out, which also ends the read loop below
+                long remaining = deadline - System.nanoTime();
+                CompletableFuture.delayedExecutor(Math.max(remaining, 0), TimeUnit.NANOSECONDS).execute(() -> {
+                    if (process.isAlive()) {
+                        killed.set(true);
+                        process.destroyForcibly();
+                    }
+                });
+            }
+            String line;
+            String resultLine = null;
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("RESULT ")) {
+                        resultLine = line;
+                    }
+                }
+            }
+            int exitCode = process.waitFor();
+            if (killed.get()) {
+                return null;
+            }
+            if (exitCode != 0 || resultLine == null) {
+                throw new IllegalStateException("Benchmark fork failed: " + benchmark + " size " + size + " " + pattern);
+            }
+            // RESULT <ops> <checksum> <compares> <swaps> <moves> <depth> <bytes> <score> <score> ...
+            String[] parts = resultLine.split(" ");
+            int first = 8; // Index of the first score
+            double[] scores = new double[combined.scores.length + parts.length - first];
+            System.arraycopy(combined.scores, 0, scores, 0, combined.scores.length);
+            for (int i = first; i < parts.length; i++) {
+                scores[combined.scores.length + i - first] = Double.parseDouble(parts[i]);
+            }
+            combined.scores = scores;
+            combined.ops += Double.parseDouble(parts[1]) / config.forks;
+            combined.checksum = Integer.parseInt(parts[2]);
+            if (SortStats.ENABLED && !parts[3].equals("-1")) {
+                combined.stats = new SortStats();
+                combined.stats.compares = Long.parseLong(parts[3]);
+                combined.stats.swaps = Long.parseLong(parts[4]);
+                combined.stats.moves = Long.parseLong(parts[5]);
+                combined.stats.maxDepth = Integer.parseInt(parts[6]);
+                combined.stats.bytesAllocated = Long.parseLong(parts[7]);
+            }
+        }
+        return combined;
+    }
+
+    /**
+     * How a fork starts this program. Run as "java 'Algorithm Analysis.java'" the class is
+     * compiled in memory and is not on the class path, so the fork is given the source file
+     * the launcher was started with instead.
+     * @return The arguments that follow the java command, or null if neither a source file nor
+     *         a class path holding the class is known
+     */
+    private static List<String> forkLaunchArgs() {
+        String sourceFile = System.getProperty("jdk.launcher.sourcefile");
+        if (sourceFile != null) {
+            return List.of(sourceFile);
+        }
+        String classPath = System.getProperty("java.class.path");
+        String className = Assignment2_Start_F24.class.getName();
+        for (String entry : classPath.split(File.pathSeparator)) {
+            if (Files.exists(Path.of(entry.isEmpty() ? "." : entry, className + ".class"))
+                    || entry.endsWith(".jar")) {
+                return List.of("-cp", classPath, className);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Entry point of a forked benchmark JVM, prints one RESULT line for the parent
+     * @param args --bench-fork benchmark size pattern warmupIterations measurementIterations iterationMillis
+     */
+    private static void runBenchmarkFork(String[] args) {
+        BenchConfig config = new BenchConfig();
+        config.warmupIterations = Integer.parseInt(args[4]);
+        config.measurementIterations = Integer.parseInt(args[5]);
+        config.iterationMillis = Long.parseLong(args[6]);
+        BenchResult result = measureBenchmark(args[1], Integer.parseInt(args[2]), ArrayPattern.valueOf(args[3]), config);
+        StringBuilder line = new StringBuilder("RESULT ");
+        line.append(result.ops).append(' ').append(result.checksum);
+        SortStats stats = result.stats != null ? result.stats : new SortStats();
+        if (result.stats == null) {
+            stats.compares = -1; // Tells the parent there were no counters
+        }
+        line.append(' ').append(stats.compares).append(' ').append(stats.swaps).append(' ').append(stats.moves)
+                .append(' ').append(stats.maxDepth).append(' ').append(stats.bytesAllocated);
+        for (double score : result.scores) {
+            line.append(' ').append(score);
+        }
+        System.out.println(line);
+    }
+
+    /**
+     * Runs every benchmark at every size, prints a summary table and writes the results as JSON
+     * @param config The benchmark settings
+     */
+    private static void runBenchmarkSuite(BenchConfig config) throws IOException, InterruptedException {
+        List<BenchResult> results = new ArrayList<>();
+        System.out.printf("# Warmup: %d x %d ms, Measurement: %d x %d ms, Forks: %d\n",
+                config.warmupIterations, config.iterationMillis,
+                config.measurementIterations, config.iterationMillis, config.forks);
+        System.out.printf("%-15s%-20s%10s%14s%14s%16s%12s  %s\n",
+                "Benchmark", "Dataset", "Size", "Score", "Error", "ops / op", "checksum", "Units");
+        int failed = 0;
+        for (ArrayPattern pattern : config.patterns) {
+            for (int size : config.sizes) {
+                for (String benchmark : config.benchmarks) {
+                    BenchResult result;
+                    try {
+                        result = forkBenchmark(benchmark, size, pattern, config);
+                    } catch (IllegalStateException | StackOverflowError e) {
+                        // A failed benchmark, such as Quick recursing too deep on QUICKSORT_KILLER,
+                        // is reported and left out of the results so the rest of the suite still runs
+                        failed++;
+                        System.out.printf("%-15s%-20s%,10d  failed: %s\n", benchmark, pattern, size,
+                                e instanceof StackOverflowError ? "stack overflow" : e.getMessage());
+                        continue;
+                    }
+                    results.add(result);
+                    System.out.printf("%-15s%-20s%,10d%,14.1f%,14.1f%,16.1f%12d  ns/op\n", result.benchmark,
+                            result.dataset, result.size, result.mean(), result.stdDev(), result.ops, result.checksum);
+                    if (result.stats != null) {
+                        System.out.printf("%15s%s\n", "", result.stats);
+                    }
+                }
+            }
+        }
+        writeBenchResults(results, config);
+        if (failed > 0) {
+            System.out.printf("# %d of %d benchmarks failed\n", failed, results.size() + failed);
+        }
+        System.out.println("Results written to " + config.output);
+    }
+
+    /**
+     * Writes benchmark results to config.output, as JSON or in the export format of its extension
+     * @param results The results to write
+     * @param config The settings they were measured with
+     */
+    private static void writeBenchResults(List<BenchResult> results, BenchConfig config) throws IOException {
+        if (config.output.endsWith(".json")) {
+            Files.writeString(Path.of(config.output), benchResultsToJson(results, config));
+            return;
+        }
+        // .csv and .bin go through the results export
+        List<ResultRecord> records = new ArrayList<>();
+        for (BenchResult result : results) {
+            records.add(ResultRecord.of(result));
+        }
+        writeResults(Path.of(config.output), records);
+    }
+
+    /**
+     * Formats benchmark results as a JSON document
+     * @param results The results to format
+     * @param config The settings they were measured with
+     * @return The JSON text
+     */
+    private static String benchResultsToJson(List<BenchResult> results, BenchConfig config) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"jvm\": ").append(jsonString(System.getProperty("java.vm.version"))).append(",\n");
+        json.append("  \"warmupIterations\": ").append(config.warmupIterations).append(",\n");
+        json.append("  \"measurementIterations\": ").append(config.measurementIterations).append(",\n");
+        json.append("  \"iterationMillis\": ").append(config.iterationMillis).append(",\n");
+        json.append("  \"forks\": ").append(config.forks).append(",\n");
+        json.append("  \"results\": [");
+        for (int i = 0; i < results.size(); i++) {
+            BenchResult result = results.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"benchmark\": ").append(jsonString(result.benchmark));
+            json.append(", \"dataset\": ").append(jsonString(result.dataset));
+            json.append(", \"size\": ").append(result.size);
+            json.append(", \"unit\": \"ns/op\"");
+            json.append(", \"score\": ").append(result.mean());
+            json.append(", \"error\": ").append(result.stdDev());
+            json.append(", \"min\": ").append(result.min());
+            json.append(", \"max\": ").append(result.max());
+            json.append(", \"ops\": ").append(result.ops);
+            json.append(", \"checksum\": ").append(result.checksum);
+            if (result.stats != null) {
+                json.append(", \"compares\": ").append(result.stats.compares);
+                json.append(", \"swaps\": ").append(result.stats.swaps);
+                json.append(", \"moves\": ").append(result.stats.moves);
+                json.append(", \"maxDepth\": ").append(result.stats.maxDepth);
+                json.append(", \"bytesAllocated\": ").append(result.stats.bytesAllocated);
+            }
+            json.append(", \"scores\": [");
+            for (int j = 0; j < result.scores.length; j++) {
+                json.append(j == 0 ? "" : ", ").append(result.scores[j]);
+            }
+            json.append("]}");
+        }
+        json.append("\n  ]\n}\n");
+        return json.toString();
+    }
+
+    // Printed when the benchmark options cannot be read
+    private static final String BENCH_USAGE = "--bench|--sweep|--break-even [--warmup n] [--iterations n] [--time ms]"
+            + " [--forks n] [--sizes a,b,c] [--patterns sorted,reversed,...] [--benchmarks a,b,c]"
+            + " [--out .json, .csv or .bin], --break-even also takes [--sort name] [--queries a,b,c]"
+            + " and --sweep [--threads n] [--pin true] [--budget ms] [--quadratic-cap size]";
+
+    /**
+     * Reads the benchmark options from the command line
+     * @param args --bench [--warmup n] [--iterations n] [--time ms] [--forks n] [--sizes a,b,c]
+     *             [--patterns sorted,reversed,...] [--benchmarks a,b,c] [--out .json, .csv or .bin], --break-even
+     *             also takes [--sort name] [--queries a,b,c] and --sweep [--threads n] [--pin true]
+     *             [--budget ms] [--quadratic-cap size]
+     * @return The benchmark settings, a bad option prints the usage and exits with 2
+     */
+    private static BenchConfig parseBenchArgs(String[] args) {
+        return parseBenchArgs(args, new BenchConfig());
+    }
+
+    /**
+     * Reads the benchmark options from the command line over a set of defaults
+     * @param args The command line, its first argument is the mode and is skipped
+     * @param config The defaults to overwrite
+     * @return config
+     */
+    private static BenchConfig parseBenchArgs(String[] args, BenchConfig config) {
+        try {
+            readBenchArgs(args, config);
+            checkBenchConfig(config, args[0]);
+        } catch (IllegalArgumentException e) {
+            // NumberFormatException and a bad pattern name land here too
+            exitWithUsage(e.getMessage(), BENCH_USAGE);
+        }
+        return config;
+    }
+
+    private static void readBenchArgs(String[] args, BenchConfig config) {
+        for (int i = 1; i < args.length; i += 2) {
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + args[i]);
+            }
+            String value = args[i + 1];
+            switch (args[i]) {
+                case "--warmup" -> config.warmupIterations = Integer.parseInt(value);
+                case "--iterations" -> config.measurementIterations = Integer.parseInt(value);
+                case "--time" -> config.iterationMillis = Long.parseLong(value);
+                case "--forks" -> config.forks = Integer.parseInt(value);
+                case "--out" -> config.output = value;
+                case "--sort" -> config.sort = value;
+                case "--benchmarks" -> config.benchmarks = List.of(value.split(","));
+                case "--threads" -> config.threads = Integer.parseInt(value);
+                case "--pin" -> config.pin = Boolean.parseBoolean(value);
+                case "--budget" -> config.budgetMillis = Long.parseLong(value);
+                case "--quadratic-cap" -> config.quadraticCap = Integer.parseInt(value);
+                case "--sizes" -> config.sizes = parseInts(value);
+                case "--queries" -> config.queries = parseInts(value);
+                case "--patterns" -> {
+                    String[] patterns = value.split(",");
+                    config.patterns = new ArrayPattern[patterns.length];
+                    for (int j = 0; j < patterns.length; j++) {
+                        try {
+                            config.patterns[j] = ArrayPattern.valueOf(patterns[j].trim().toUpperCase().replace('-', '_'));
+                        } catch (IllegalArgumentException e) {
+                            throw new IllegalArgumentException("Unknown pattern: " + patterns[j] + ", expected one of "
+                                    + Arrays.toString(ArrayPattern.values()));
+                        }
+                    }
+                }
+                default -> throw new IllegalArgumentException("Unknown option: " + args[i]);
+            }
+        }
+    }
+
+    /**
+     * Rejects settings that cannot be measured, before any benchmark runs
+     * @param config The settings read from the command line
+     * @param mode --bench, --sweep or --break-even
+     */
+    private static void checkBenchConfig(BenchConfig config, String mode) {
+        if (config.measurementIterations < 1) {
+            throw new IllegalArgumentException("--iterations must be 1 or more: " + config.measurementIterations);
+        }
+        if (config.warmupIterations < 0) {
+            throw new IllegalArgumentException("--warmup must not be negative: " + config.warmupIterations);
+        }
+        if (config.iterationMillis < 1) {
+            throw new IllegalArgumentException("--time must be 1 ms or more: " + config.iterationMillis);
+        }
+        if (config.forks < (mode.equals("--sweep") ? 1 : 0)) {
+            throw new IllegalArgumentException(mode.equals("--sweep")
+                    ? "--sweep runs every job in its own JVM, --forks must be 1 or more: " + config.forks
+                    : "--forks must not be negative: " + config.forks);
+        }
+        if (config.threads < 1) {
+            throw new IllegalArgumentException("--threads must be 1 or more: " + config.threads);
+        }
+        if (config.budgetMillis < 0) {
+            throw new IllegalArgumentException("--budget must not be negative: " + config.budgetMillis);
+        }
+        for (int size : config.sizes) {
+            if (size < 1) {
+                throw new IllegalArgumentException("--sizes must all be 1 or more: " + size);
+            }
+        }
+        for (int queries : config.queries) {
+            if (queries < 1) {
+                throw new IllegalArgumentException("--queries must all be 1 or more: " + queries);
+            }
+        }
+    }
+
+    /**
+     * Parses a comma separated list of numbers
+     * @param value The list, e.g. 20,400,8000
+     * @return The numbers in order
+     */
+    private static int[] parseInts(String value) {
+        String[] parts = value.split(",");
+        int[] numbers = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            numbers[i] = Integer.parseInt(parts[i].trim());
+        }
+        return numbers;
+    }
+
+    /**
+     * ---------------------------- Benchmark Sweep ---------------------------------------
+     * Runs the (benchmark, size, pattern) jobs of the suite at the same time, one thread and one
+     * forked JVM per job. Jobs on separate cores still share caches and memory bandwidth, so
+     * use --pin and fewer threads than cores when the numbers matter more than the wall time.
+     */
+
+    // Sorts that take O(n^2) time, the sweep only runs them up to config.quadraticCap
+    private static final List<String> QUADRATIC_SORTS = List.of("Selection", "Insertion", "Bubble");
+    // Default size cap of the O(n^2) sorts, a bubble sort of 10,000 values takes a fraction of a second
+    private static final int QUADRATIC_SIZE_CAP = 10_000;
+
+    /**
+     * One job of a sweep and what became of it
+     */
+    static class SweepJob {
+        final String benchmark;
+        final int size;
+        final ArrayPattern pattern;
+        BenchResult result; // null until the job finishes, and if it failed or ran out of time
+        String failure;     // Why there is no result
+
+        SweepJob(String benchmark, int size, ArrayPattern pattern) {
+            this.benchmark = benchmark;
+            this.size = size;
+            this.pattern = pattern;
+        }
     }
 
     /**
-     * Interface for the sorting methods
+     * Runs every benchmark, size and pattern of the config across config.threads threads and
+     * writes the results in suite order to config.output, as runBenchmarkSuite does
+     * @param config The suite settings plus the thread count, pinning, job budget and size cap
      */
-    interface SortMethod {
-        long sort(int[] array);
+    private static void runSweep(BenchConfig config) throws IOException, InterruptedException {
+        if (forkLaunchArgs() == null) {
+            // Jobs measured side by side in this JVM would ignore the budget and the pinning
+            throw new IllegalStateException("--sweep cannot find this program to fork its jobs, "
+                    + "run it from its source file or a class path");
+        }
+        boolean pin = config.pin && findOnPath("taskset");
+        if (config.pin && !pin) {
+            System.out.println("# taskset was not found, jobs are not pinned");
+        }
+        List<SweepJob> jobs = new ArrayList<>();
+        int skipped = 0;
+        for (ArrayPattern pattern : config.patterns) {
+            for (int size : config.sizes) {
+                for (String benchmark : config.benchmarks) {
+                    if (QUADRATIC_SORTS.contains(benchmark) && size > config.quadraticCap) {
+                        skipped++;
+                        continue;
+                    }
+                    jobs.add(new SweepJob(benchmark, size, pattern));
+                }
+            }
+        }
+        System.out.printf("# %d jobs on %d threads%s, budget %s, %d O(n^2) jobs above %,d skipped\n",
+                jobs.size(), config.threads, pin ? " pinned" : "",
+                config.budgetMillis > 0 ? config.budgetMillis + " ms" : "none", skipped, config.quadraticCap);
+
+        // Each free slot is a CPU number, taking one is the permit to start a job
+        int cpus = Runtime.getRuntime().availableProcessors();
+        BlockingQueue<Integer> slots = new ArrayBlockingQueue<>(config.threads);
+        for (int slot = 0; slot < config.threads; slot++) {
+            slots.add(slot % cpus);
+        }
+        long start = System.nanoTime();
+        List<Thread> threads = new ArrayList<>();
+        for (SweepJob job : jobs) {
+            int cpu = slots.take();
+            Thread thread = new Thread(() -> {
+                try {
+                    job.result = forkBenchmark(job.benchmark, job.size, job.pattern, config,
+                            pin ? cpu : -1, config.budgetMillis);
+                    if (job.result == null) {
+                        job.failure = "over budget";
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    job.failure = e.getMessage();
+                } catch (InterruptedException e) {
+                    job.failure = "interrupted";
+                } finally {
+                    printSweepJob(job);
+                    slots.add(cpu);
+                }
+            }, "sweep-" + job.benchmark + "-" + job.size + "-" + job.pattern);
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        List<BenchResult> results = new ArrayList<>();
+        for (SweepJob job : jobs) {
+            if (job.result != null) {
+                results.add(job.result);
+            }
+        }
+        writeBenchResults(results, config);
+        System.out.printf("# %d of %d jobs finished in %,d ms, results written to %s\n", results.size(), jobs.size(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start), config.output);
     }
 
     /**
-     * Runs a sorting method on an array and outputs the time it takes and the number of comparisons
-     * @param sortMethod The sort method to use
-     * @param sortName The name of the sort method
-     * @param array The array to sort
-     * @param totalRuns The number of runs to perform per sort method
+     * Prints a finished job. Jobs finish on many threads, so the lines are printed one at a time.
      */
-    private static void runSortMethod(SortMethod sortMethod, String sortName, int[] array, int totalRuns) {
-        long totalTime = 0; // Counter for the total time spent taken to run each method
-        long totalCompares = 0; // Counter for the number of comparisons
+    private static synchronized void printSweepJob(SweepJob job) {
+        BenchResult result = job.result;
+        if (result == null) {
+            System.out.printf("%-15s%-20s%,10d  %s\n", job.benchmark, job.pattern, job.size, job.failure);
+            return;
+        }
+        System.out.printf("%-15s%-20s%,10d%,14.1f%,14.1f%,16.1f%12d  ns/op\n", result.benchmark,
+                result.dataset, result.size, result.mean(), result.stdDev(), result.ops, result.checksum);
+        if (result.stats != null) {
+            System.out.printf("%15s%s\n", "", result.stats);
+        }
+    }
 
-        // Ensure array is sorted
-        if (ckSumSorted(array) != -1) {
-            throw new IllegalArgumentException("Array is not sorted");
+    /**
+     * @param program The name of an executable
+     * @return Whether the program is in one of the PATH directories
+     */
+    private static boolean findOnPath(String program) {
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return false;
         }
+        for (String directory : path.split(File.pathSeparator)) {
+            if (!directory.isEmpty() && Files.isExecutable(Path.of(directory, program))) {
+                return true;
+            }
+        }
+        return false;
+    }
 
-        int[] arrayClone = new int[0];
-        for (int i = 0; i < totalRuns; i++) {
-            arrayClone = array.clone(); // Create a copy of the array to keep the original unsorted
-            long start = System.currentTimeMillis();
-            long compares = sortMethod.sort(arrayClone);
-            long end = System.currentTimeMillis();
+    /**
+     * ---------------------------- Break-even Analysis ---------------------------------------
+     */
 
-            totalTime += (end - start);
-            totalCompares += compares;
+    // Array sizes --break-even measures by default, up to the 100,000 main uses for part 2
+    private static final int[] BREAK_EVEN_SIZES = {100, 1_000, 10_000, 100_000, 1_000_000};
+    // Numbers of queries the break-even curves are drawn for
+    private static final int[] BREAK_EVEN_QUERIES = {1, 10, 100, 1_000, 10_000, 100_000};
+    // Elements the linear scan benchmark reads per invocation, so big arrays scan fewer keys
+    private static final int SCAN_BUDGET = 1 << 22;
+
+    /**
+     * Scans an array for a value from the front
+     * @param array The array to search
+     * @param value The value to find
+     * @return The index of the first match, or -1 if the value is not in the array
+     */
+    public static int linearSearch(int[] array, int value) {
+        for (int i = 0; i < array.length; i++) {
+            if (array[i] == value) {
+                return i;
+            }
         }
+        return -1;
+    }
 
-        // Calculate the average time and number of comparisons
-        double avgTime = totalTime / (double) totalRuns;
-        double avgCompares = totalCompares / (double) totalRuns;
-        // Output
-        System.out.printf("%-10s", sortName);
-        System.out.printf("%,10.7f ms", avgTime);
-        System.out.printf("%,14d ops", (long) avgCompares);
-        System.out.printf("%,14.7f ms / op", avgTime / avgCompares);
-        System.out.printf("%,12d \n", ckSumSorted(arrayClone));
+    /**
+     * Number of queries after which sorting once and binary searching beats scanning every time,
+     * the smallest q with sortNanos + q * searchNanos <= q * scanNanos
+     * @param sortNanos Time to sort the array once
+     * @param scanNanos Time of one linear search
+     * @param searchNanos Time of one binary search on the sorted array
+     * @return The break-even query count, infinity if a binary search is no faster than a scan
+     */
+    public static double breakEvenQueries(double sortNanos, double scanNanos, double searchNanos) {
+        if (scanNanos <= searchNanos) {
+            return Double.POSITIVE_INFINITY;
+        }
+        return Math.ceil(sortNanos / (scanNanos - searchNanos));
     }
+
     /**
-     * Calls each sorting method for the given array
-     * @param array The array to run the sort methods on
-     * @param sortMethods The array of sort methods to use
-     * @param sortNames The array of sort names
-     * @param totalRuns The number of runs to perform per sort method
+     * Half the keys are values from the array and half are random, most of which are missing,
+     * so scans see both early exits and full passes
+     * @param data The array the keys are for
+     * @param count The number of keys
+     * @return The keys in random order
      */
-    private static void runArraySort(int[] array, SortMethod[] sortMethods, String[] sortNames, int totalRuns) {
-        System.out.printf("\nComparison of sorts, Array size = %,d total runs = %,d\n", array.length, totalRuns);
-        System.out.println("==============================================================");
-        System.out.println("Algorithm      Run time     # of compares         ms / compares    checksum");
+    private static int[] queryKeys(int[] data, int count) {
+        Random rand = new Random(BENCH_SEED);
+        int[] keys = new int[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = rand.nextBoolean() ? data[rand.nextInt(data.length)] : rand.nextInt();
+        }
+        return keys;
+    }
 
-        // Run each sort method on the array
-        for (int i = 0; i < sortMethods.length; i++) {
-            runSortMethod(sortMethods[i], sortNames[i], array, totalRuns);
+    private static BenchState linearSearchBenchState(int[] data) {
+        int[] keys = queryKeys(data, Math.max(1, Math.min(SEARCH_BATCH, SCAN_BUDGET / data.length)));
+        return new BenchState() {
+            public void setup() {
+                // The array is only read, nothing to reset
+            }
+
+            public long invoke() {
+                long found = 0;
+                for (int key : keys) {
+                    found += linearSearch(data, key);
+                }
+                blackhole = found;
+                return data.length;
+            }
+
+            public int batchSize() {
+                return keys.length;
+            }
+
+            public int checksum() {
+                return ckSumSorted(data);
+            }
+        };
+    }
+
+    private static BenchState searchBatchBenchState(int[] sorted, int queries) {
+        int[] keys = queryKeys(sorted, queries);
+        int[] results = new int[queries];
+        SortBuffers buffers = new SortBuffers();
+        return new BenchState() {
+            public void setup() {
+                // The sorted array is only read, nothing to reset
+            }
+
+            public long invoke() {
+                binarySearchBatch(sorted, keys, results, buffers);
+                blackhole = results[queries - 1];
+                return queries;
+            }
+
+            public int batchSize() {
+                return queries;
+            }
+
+            public int checksum() {
+                return ckSumSorted(sorted);
+            }
+        };
+    }
+
+    /**
+     * Warms up a benchmark and averages its measured iterations
+     * @param state The benchmark to run
+     * @param config The iteration settings
+     * @return The average ns per operation
+     */
+    private static double measureNanos(BenchState state, BenchConfig config) {
+        long iterationNanos = config.iterationMillis * 1_000_000L;
+        for (int i = 0; i < config.warmupIterations; i++) {
+            runIteration(state, iterationNanos);
         }
+        double sum = 0;
+        for (int i = 0; i < config.measurementIterations; i++) {
+            sum += runIteration(state, iterationNanos)[0];
+        }
+        return sum / config.measurementIterations;
     }
+
     /**
-     * Generates an array of random integers
-     * @param studentID The number used to seed the random number generator
-     * @param arraySize THe size of the array to generate
-     * @return The generated array
+     * Measures the cost of answering queries by linear search against sorting once and searching
+     * the sorted array in batches, for every size and query count in the config. Runs in this JVM,
+     * config.forks is not used.
+     * @param config The sizes, query counts, sort method, iteration settings and output file.
+     *               A .json output is written as JSON, anything else as CSV.
      */
-    private static int[] generateArray(long studentID, int arraySize) {
-        Random rand = new Random(studentID);
-        int[] array = new int[arraySize];
-        for(int i = 0; i < array.length; i++) {
-            array[i] = rand.nextInt(1, arraySize);
+    private static void runBreakEven(BenchConfig config) throws IOException {
+        StringBuilder csv = new StringBuilder(
+                "size,queries,sort,sortNs,scanNs,searchNs,scanTotalNs,indexTotalNs,breakEvenQueries,winner\n");
+        StringBuilder json = new StringBuilder();
+        json.append("{\n");
+        json.append("  \"jvm\": ").append(jsonString(System.getProperty("java.vm.version"))).append(",\n");
+        json.append("  \"sort\": ").append(jsonString(config.sort)).append(",\n");
+        json.append("  \"unit\": \"ns\",\n");
+        json.append("  \"results\": [");
+        boolean first = true;
+        for (int size : config.sizes) {
+            int[] data = generateArray(BENCH_SEED, size, ArrayPattern.RANDOM);
+            double sortNanos = measureNanos(prepareBenchmark(config.sort, data), config);
+            double scanNanos = measureNanos(linearSearchBenchState(data), config);
+            int[] sorted = data.clone();
+            radixSort(sorted);
+            for (int queries : config.queries) {
+                // Batches amortise their own key sort, so the per-query cost depends on the count
+                double searchNanos = measureNanos(searchBatchBenchState(sorted, queries), config);
+                double scanTotal = scanNanos * queries;
+                double indexTotal = sortNanos + searchNanos * queries;
+                double breakEven = breakEvenQueries(sortNanos, scanNanos, searchNanos);
+                String winner = indexTotal < scanTotal ? "sort" : "scan";
+                csv.append(size).append(',').append(queries).append(',').append(csvField(config.sort))
+                        .append(',').append(sortNanos).append(',').append(scanNanos)
+                        .append(',').append(searchNanos).append(',').append(scanTotal)
+                        .append(',').append(indexTotal).append(',').append(breakEven)
+                        .append(',').append(winner).append('\n');
+                json.append(first ? "\n" : ",\n");
+                json.append("    {\"size\": ").append(size);
+                json.append(", \"queries\": ").append(queries);
+                json.append(", \"sortNs\": ").append(sortNanos);
+                json.append(", \"scanNs\": ").append(scanNanos);
+                json.append(", \"searchNs\": ").append(searchNanos);
+                json.append(", \"scanTotalNs\": ").append(scanTotal);
+                json.append(", \"indexTotalNs\": ").append(indexTotal);
+                // JSON has no infinity, a missing break-even point is written as null
+                json.append(", \"breakEvenQueries\": ").append(Double.isInfinite(breakEven) ? "null" : breakEven);
+                json.append(", \"winner\": \"").append(winner).append("\"}");
+                first = false;
+                System.out.printf("%,10d elements %,8d queries: scan %,14.0f ns, sort + search %,14.0f ns, "
+                        + "break-even %,.0f queries, %s wins\n", size, queries, scanTotal, indexTotal, breakEven, winner);
+            }
+        }
+        json.append("\n  ]\n}\n");
+        String output = config.output.endsWith(".json") ? json.toString() : csv.toString();
+        Files.writeString(Path.of(config.output), output);
+        System.out.println("Results written to " + config.output);
+    }
+
+    /**
+     * ---------------------------- Self Test ---------------------------------------
+     * Checks of edge cases that are easy to break, run with --self-test.
+     */
+
+    /**
+     * @return The number of checks that failed, each one is printed.
+     */
+    private static int runSelfTests() {
+        int failures = 0;
+        // An invalid permutation is rejected before the column is touched
+        int[] column = {10, 20, 30};
+        try {
+            applyPermutation(new int[] {1, 1, 2}, column);
+            failures += selfTestFailed("applyPermutation accepted a repeated index");
+        } catch (IllegalArgumentException expected) {
+            if (!Arrays.equals(column, new int[] {10, 20, 30})) {
+                failures += selfTestFailed("applyPermutation changed the column before rejecting it: "
+                        + Arrays.toString(column));
+            }
+        }
+        failures += checkSort("parallelMergeSort",
+                (array, stats) -> parallelMergeSort(array, PARALLEL_MERGE_CUTOFF, stats),
+                boundarySizes(PARALLEL_MERGE_CUTOFF, 2 * PARALLEL_MERGE_CUTOFF,
+                        PARALLEL_MERGE_FORK_SIZE, 2 * PARALLEL_MERGE_FORK_SIZE));
+        int[] quickSizes = boundarySizes(INTRO_INSERTION_CUTOFF, NINTHER_SIZE, PARALLEL_QUICK_FORK_SIZE,
+                2 * PARALLEL_QUICK_FORK_SIZE);
+        failures += checkSort("introQuickSort", Assignment2_Start_F24::introQuickSort, quickSizes);
+        failures += checkSort("serialIntroQuickSort", Assignment2_Start_F24::serialIntroQuickSort, quickSizes);
+        int[] radixSizes = boundarySizes(RADIX_BUCKETS, RADIX_BLOCK_SIZE);
+        failures += checkSort("radixSort", (array, stats) -> radixSort(array, null, stats), radixSizes);
+        failures += checkSort("radixSort with scratch",
+                (array, stats) -> radixSort(array, new int[array.length + 1], stats), radixSizes);
+        // A range of COUNTING_RANGE_FACTOR * n takes the counting sort and one more takes the LSD
+        // passes, checked with the range at both ends of the int values
+        SplittableRandom random = new SplittableRandom(SELF_TEST_SEED);
+        int n = 1000;
+        for (int range = COUNTING_RANGE_FACTOR * n; range <= COUNTING_RANGE_FACTOR * n + 1; range++) {
+            for (int min : new int[] {Integer.MIN_VALUE, -range / 2, Integer.MAX_VALUE - range + 1}) {
+                int[] array = new int[n];
+                for (int i = 0; i < n; i++) {
+                    array[i] = min + random.nextInt(range);
+                }
+                array[0] = min;
+                array[1] = min + range - 1;
+                failures += checkSort("radixSort", (values, stats) -> radixSort(values, null, stats), array,
+                        n + " values in a range of " + range + " from " + min);
+            }
+        }
+        // Up to a few runs past a power of two so the loser tree is lopsided, some of them empty
+        TestShape[] shapes = TestShape.values();
+        for (int k = 0; k <= 9; k++) {
+            failures += checkMerge(k, shapes, random);
+        }
+        for (int size : boundarySizes(INTRO_INSERTION_CUTOFF, NINTHER_SIZE, PARALLEL_QUICK_FORK_SIZE)) {
+            for (TestShape shape : shapes) {
+                failures += checkSelection(testArray(shape, size, random), size + " " + shape + " values");
+            }
+        }
+        // A short last run and a short last tile are where the passes can drop values
+        int[] bottomUpSizes = boundarySizes(BOTTOM_UP_RUN, 2 * BOTTOM_UP_RUN, BOTTOM_UP_TILE,
+                BOTTOM_UP_TILE + BOTTOM_UP_RUN, 2 * BOTTOM_UP_TILE, 3 * BOTTOM_UP_TILE);
+        failures += checkSort("bottomUpMergeSort", (array, stats) -> bottomUpMergeSort(array, null, stats),
+                bottomUpSizes);
+        failures += checkSort("bottomUpMergeSort with scratch",
+                (array, stats) -> bottomUpMergeSort(array, new int[array.length + 1], stats), bottomUpSizes);
+        // radixSort only takes the parallel passes above PARALLEL_RADIX_SIZE with more than one
+        // core, so they are called directly to be checked on any machine
+        SortMethod parallelRadix = (array, stats) ->
+                array.length == 0 ? 0 : parallelLsdRadixSort(array, new int[array.length], stats);
+        failures += checkSort("parallelLsdRadixSort", parallelRadix,
+                boundarySizes(RADIX_BLOCK_SIZE, 2 * RADIX_BLOCK_SIZE, 4 * RADIX_BLOCK_SIZE));
+        int[] largeSizes = {PARALLEL_RADIX_SIZE - 1, PARALLEL_RADIX_SIZE, PARALLEL_RADIX_SIZE + 1};
+        TestShape[] largeShapes = {TestShape.RANDOM, TestShape.EXTREMES};
+        failures += checkSort("parallelLsdRadixSort", parallelRadix, largeSizes, largeShapes);
+        failures += checkSort("radixSort", (array, stats) -> radixSort(array, null, stats), largeSizes, largeShapes);
+        for (TestShape shape : largeShapes) {
+            int[] array = testArray(shape, PARALLEL_RADIX_SIZE + 1, random);
+            long[] minMax = ForkJoinPool.commonPool().invoke(new MinMaxTask(array, 0, array.length));
+            Arrays.sort(array);
+            if (minMax[0] != array[0] || minMax[1] != array[array.length - 1]) {
+                failures += selfTestFailed("MinMaxTask on " + array.length + " " + shape + " values");
+            }
+        }
+        // Bulk loads either side of the pending buffer and of one and several blocks
+        int[] listSizes = boundarySizes(SortedIntList.PENDING_CAPACITY, SortedIntList.BLOCK_CAPACITY,
+                4 * SortedIntList.BLOCK_CAPACITY);
+        for (int i = 0; i < listSizes.length; i++) {
+            TestShape shape = shapes[i % shapes.length];
+            failures += checkSortedIntList(testArray(shape, listSizes[i], random), random,
+                    listSizes[i] + " " + shape + " values");
+        }
+        return failures;
+    }
+
+    private static int selfTestFailed(String message) {
+        System.out.println("FAILED: " + message);
+        return 1;
+    }
+
+    // Seed of every self test input, so a failure repeats on the next run
+    private static final long SELF_TEST_SEED = 20240917L;
+
+    /**
+     * Inputs the self tests sort, picked to reach the edge cases of the sorts: keys at both
+     * ends of the int range, the runs the adaptive paths look for and the repeats a partition
+     * can get wrong.
+     */
+    private enum TestShape {
+        RANDOM,           // Uniform over the whole int range
+        NEAR_MIN,         // A few values just above Integer.MIN_VALUE, a small range at the bottom
+        NEAR_MAX,         // A few values just below Integer.MAX_VALUE, a small range at the top
+        EXTREMES,         // MIN_VALUE, MAX_VALUE and the values next to them and to 0
+        SORTED,
+        REVERSED,
+        EQUAL,
+        ORGAN_PIPE,
+        SAWTOOTH,
+        QUICKSORT_KILLER
+    }
+
+    private static final int[] EXTREME_KEYS = {
+            Integer.MIN_VALUE, Integer.MIN_VALUE + 1, -1, 0, 1, Integer.MAX_VALUE - 1, Integer.MAX_VALUE
+    };
+
+    /**
+     * @return An array of n values arranged as the shape says.
+     */
+    private static int[] testArray(TestShape shape, int n, SplittableRandom random) {
+        int[] array = new int[n];
+        switch (shape) {
+            case RANDOM, SORTED, REVERSED -> {
+                for (int i = 0; i < n; i++) {
+                    array[i] = random.nextInt();
+                }
+                if (shape != TestShape.RANDOM) {
+                    Arrays.sort(array);
+                }
+                if (shape == TestShape.REVERSED) {
+                    for (int i = 0, j = n - 1; i < j; i++, j--) {
+                        swap(array, i, j);
+                    }
+                }
+            }
+            case NEAR_MIN -> {
+                for (int i = 0; i < n; i++) {
+                    array[i] = Integer.MIN_VALUE + random.nextInt(16);
+                }
+            }
+            case NEAR_MAX -> {
+                for (int i = 0; i < n; i++) {
+                    array[i] = Integer.MAX_VALUE - random.nextInt(16);
+                }
+            }
+            case EXTREMES -> {
+                for (int i = 0; i < n; i++) {
+                    array[i] = EXTREME_KEYS[random.nextInt(EXTREME_KEYS.length)];
+                }
+            }
+            case EQUAL -> Arrays.fill(array, random.nextInt());
+            case ORGAN_PIPE -> {
+                for (int i = 0; i < n; i++) {
+                    array[i] = Math.min(i, n - 1 - i);
+                }
+            }
+            case SAWTOOTH -> {
+                int tooth = Math.max(1, n / 8);
+                for (int i = 0; i < n; i++) {
+                    array[i] = i % tooth;
+                }
+            }
+            case QUICKSORT_KILLER -> array = quicksortKiller(n);
+            default -> throw new IllegalArgumentException("Unknown shape: " + shape);
         }
         return array;
     }
 
+    /**
+     * @param limits The sizes where a sort changes what it does, a cutoff or a block size.
+     * @return 0, 1, 2 and every limit with the sizes either side of it, ascending.
+     */
+    private static int[] boundarySizes(int... limits) {
+        int[] sizes = new int[3 + 3 * limits.length];
+        sizes[1] = 1;
+        sizes[2] = 2;
+        for (int i = 0; i < limits.length; i++) {
+            sizes[3 + 3 * i] = limits[i] - 1;
+            sizes[4 + 3 * i] = limits[i];
+            sizes[5 + 3 * i] = limits[i] + 1;
+        }
+        return Arrays.stream(sizes).filter(size -> size >= 0).sorted().distinct().toArray();
+    }
+
+    /**
+     * Sorts every shape at every size and compares the result with Arrays.sort of the same
+     * input, which checks both the order and that the multiset of values was kept.
+     *
+     * @param name The name printed with a failure.
+     * @param sortMethod The sort to check.
+     * @param sizes The array sizes to check.
+     * @param shapes The shapes to check, all of them when there are none.
+     * @return The number of checks that failed.
+     */
+    private static int checkSort(String name, SortMethod sortMethod, int[] sizes, TestShape... shapes) {
+        if (shapes.length == 0) {
+            shapes = TestShape.values();
+        }
+        SplittableRandom random = new SplittableRandom(SELF_TEST_SEED);
+        int failures = 0;
+        for (int n : sizes) {
+            for (TestShape shape : shapes) {
+                failures += checkSort(name, sortMethod, testArray(shape, n, random), n + " " + shape + " values");
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * Merges k sorted runs with kWayMerge and with a KWayMerger draining to a sink, and compares
+     * both with Arrays.sort of the runs put end to end.
+     *
+     * @return The number of checks that failed.
+     */
+    private static int checkMerge(int k, TestShape[] shapes, SplittableRandom random) {
+        int[][] runs = new int[k][];
+        int total = 0;
+        for (int i = 0; i < k; i++) {
+            runs[i] = testArray(shapes[i % shapes.length], i % 3 == 1 ? 0 : random.nextInt(1, 50), random);
+            Arrays.sort(runs[i]);
+            total += runs[i].length;
+        }
+        int[] expected = new int[total];
+        IntCursor[] cursors = new IntCursor[k];
+        for (int i = 0, at = 0; i < k; at += runs[i].length, i++) {
+            System.arraycopy(runs[i], 0, expected, at, runs[i].length);
+            cursors[i] = cursor(runs[i], 0, runs[i].length);
+        }
+        Arrays.sort(expected);
+        int failures = 0;
+        int[] merged = new int[total];
+        try {
+            kWayMerge(runs, merged);
+            if (!Arrays.equals(merged, expected)) {
+                failures += selfTestFailed("kWayMerge did not merge " + k + " runs");
+            }
+            int[] drained = new int[total];
+            int[] written = {0};
+            long count = new KWayMerger(cursors).drainTo(value -> drained[written[0]++] = value);
+            if (count != total || !Arrays.equals(drained, expected)) {
+                failures += selfTestFailed("KWayMerger did not merge " + k + " runs");
+            }
+        } catch (RuntimeException e) {
+            failures += selfTestFailed("merging " + k + " runs threw: " + e);
+        }
+        return failures;
+    }
+
+    /**
+     * Runs nthElement, partialSort and topK on copies of the input for k = 0, 1, n / 2, n - 1
+     * and n, and checks each result against Arrays.sort of the input.
+     *
+     * @param description What the input is, printed with a failure.
+     * @return The number of checks that failed.
+     */
+    private static int checkSelection(int[] input, String description) {
+        int n = input.length;
+        int[] expected = input.clone();
+        Arrays.sort(expected);
+        int failures = 0;
+        int[] ks = Arrays.stream(new int[] {0, 1, n / 2, n - 1, n}).filter(k -> k >= 0 && k <= n).distinct().toArray();
+        for (int k : ks) {
+            String where = " with k = " + k + " on " + description;
+            try {
+                if (k < n) {
+                    int[] array = input.clone();
+                    nthElement(array, k);
+                    boolean split = array[k] == expected[k];
+                    for (int i = 0; i < n && split; i++) {
+                        split = i < k ? array[i] <= array[k] : array[i] >= array[k];
+                    }
+                    if (!split || !sameValues(array, expected)) {
+                        failures += selfTestFailed("nthElement" + where);
+                    }
+                }
+                int[] array = input.clone();
+                partialSort(array, k);
+                if (!Arrays.equals(array, 0, k, expected, 0, k) || !sameValues(array, expected)) {
+                    failures += selfTestFailed("partialSort" + where);
+                }
+                array = input.clone();
+                int[] top = topK(array, k);
+                boolean largestFirst = top.length == k && Arrays.equals(array, input);
+                for (int i = 0; i < top.length && largestFirst; i++) {
+                    largestFirst = top[i] == expected[n - 1 - i];
+                }
+                if (!largestFirst) {
+                    failures += selfTestFailed("topK" + where);
+                }
+            } catch (RuntimeException e) {
+                failures += selfTestFailed("selection threw" + where + ": " + e);
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * @param sorted An array already in ascending order.
+     * @return true if array holds the same multiset of values as sorted.
+     */
+    private static boolean sameValues(int[] array, int[] sorted) {
+        int[] copy = array.clone();
+        Arrays.sort(copy);
+        return Arrays.equals(copy, sorted);
+    }
+
+    /**
+     * Bulk loads a SortedIntList and a TreeMap of value counts with the same values, then runs
+     * random adds, removes and queries on both and compares the answers. Keys are drawn from
+     * the extremes, a small range that repeats and the loaded values.
+     *
+     * @param initial The values to load.
+     * @param description What was loaded, printed with a failure.
+     * @return 1 if the list and the map disagreed, otherwise 0.
+     */
+    private static int checkSortedIntList(int[] initial, SplittableRandom random, String description) {
+        TreeMap<Integer, Integer> counts = new TreeMap<>();
+        for (int value : initial) {
+            counts.merge(value, 1, Integer::sum);
+        }
+        SortedIntList list;
+        try {
+            list = new SortedIntList(initial, Assignment2_Start_F24::introQuickSort);
+        } catch (RuntimeException e) {
+            return selfTestFailed("SortedIntList threw loading " + description + ": " + e);
+        }
+        int size = initial.length;
+        for (int step = 0; step < 4 * SortedIntList.BLOCK_CAPACITY; step++) {
+            int value = listKey(initial, random);
+            String operation = "";
+            boolean agrees = true;
+            try {
+                switch (random.nextInt(10)) {
+                    case 0, 1, 2, 3 -> {
+                        operation = "add(" + value + ")";
+                        list.add(value);
+                        counts.merge(value, 1, Integer::sum);
+                        size++;
+                    }
+                    case 4, 5, 6 -> {
+                        operation = "remove(" + value + ")";
+                        boolean removed = counts.containsKey(value);
+                        if (removed) {
+                            counts.compute(value, (key, count) -> count == 1 ? null : count - 1);
+                            size--;
+                        }
+                        agrees = list.remove(value) == removed;
+                    }
+                    case 7 -> {
+                        operation = "contains(" + value + ")";
+                        agrees = list.contains(value) == counts.containsKey(value);
+                    }
+                    case 8 -> {
+                        int to = listKey(initial, random);
+                        operation = "rangeCount(" + value + ", " + to + ")";
+                        agrees = list.rangeCount(value, to) == referenceCount(counts, value, to);
+                    }
+                    default -> {
+                        int[] values = new int[random.nextInt(2 * SortedIntList.PENDING_CAPACITY)];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = listKey(initial, random);
+                            counts.merge(values[i], 1, Integer::sum);
+                        }
+                        operation = "addAll of " + values.length + " values";
+                        list.addAll(values);
+                        size += values.length;
+                    }
+                }
+                agrees &= list.size() == size;
+                if (agrees && step % SortedIntList.PENDING_CAPACITY == 0) {
+                    // Check every value now and then, toArray and range also flush the pending ones
+                    int from = listKey(initial, random);
+                    int to = listKey(initial, random);
+                    operation += " then range(" + from + ", " + to + ")";
+                    List<Integer> inRange = new ArrayList<>();
+                    list.range(from, to, inRange::add);
+                    int[] all = referenceValues(counts).stream().mapToInt(Integer::intValue).toArray();
+                    agrees = inRange.equals(referenceValues(from < to ? counts.subMap(from, to) : Map.of()))
+                            && Arrays.equals(list.toArray(), all);
+                }
+            } catch (RuntimeException e) {
+                return selfTestFailed("SortedIntList threw on " + operation + " after loading " + description
+                        + ": " + e);
+            }
+            if (!agrees) {
+                return selfTestFailed("SortedIntList disagreed with a TreeMap on " + operation
+                        + " after loading " + description);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * @return A key from EXTREME_KEYS, from a small range so keys repeat, or one of the initial values.
+     */
+    private static int listKey(int[] initial, SplittableRandom random) {
+        int pick = random.nextInt(4);
+        if (pick == 0) {
+            return EXTREME_KEYS[random.nextInt(EXTREME_KEYS.length)];
+        }
+        if (pick == 1 && initial.length > 0) {
+            return initial[random.nextInt(initial.length)];
+        }
+        return random.nextInt(-100, 100);
+    }
+
+    /**
+     * @return The number of values in [from, to) counted in the map.
+     */
+    private static int referenceCount(TreeMap<Integer, Integer> counts, int from, int to) {
+        return from >= to ? 0 : counts.subMap(from, to).values().stream().mapToInt(Integer::intValue).sum();
+    }
+
+    /**
+     * @param counts Value counts in ascending order of value.
+     * @return The values, each repeated as often as it was counted.
+     */
+    private static List<Integer> referenceValues(Map<Integer, Integer> counts) {
+        List<Integer> values = new ArrayList<>();
+        counts.forEach((value, count) -> {
+            for (int i = 0; i < count; i++) {
+                values.add(value);
+            }
+        });
+        return values;
+    }
+
+    /**
+     * Sorts one array and compares the result with Arrays.sort of the same input.
+     *
+     * @param input The array to sort, it is sorted in place.
+     * @param description What the input is, printed with a failure.
+     * @return 1 if the check failed, otherwise 0.
+     */
+    private static int checkSort(String name, SortMethod sortMethod, int[] input, String description) {
+        int[] expected = input.clone();
+        Arrays.sort(expected);
+        try {
+            sortMethod.sort(input);
+        } catch (RuntimeException | StackOverflowError e) {
+            return selfTestFailed(name + " threw on " + description + ": " + e);
+        }
+        if (!Arrays.equals(input, expected)) {
+            return selfTestFailed(name + " did not sort " + description);
+        }
+        return 0;
+    }
+
+    /**
+     * Exits with a usage message when a flag has fewer arguments than it needs, so a script
+     * never mistakes the default run for the one it asked for
+     * @param args The command line, the flag first
+     * @param count The number of arguments the flag needs after it
+     * @param usage How the flag is used
+     */
+    private static void requireArgs(String[] args, int count, String usage) {
+        if (args.length <= count) {
+            exitWithUsage(null, usage);
+        }
+    }
+
+    /**
+     * Prints what was wrong with the command line and how to use it, then exits with 2
+     * @param message The problem, or null to print only the usage
+     * @param usage How the flag is used
+     */
+    private static void exitWithUsage(String message, String usage) {
+        if (message != null) {
+            System.err.println(message);
+        }
+        System.err.println("Usage: " + usage);
+        System.exit(2);
+    }
+
     /**
      * Main method
-     * @param args - command line arguments
+     * @param args - command line arguments, --bench runs the benchmark suite, --sweep runs it on many
+     *               threads, --calibrate prints AutoSort thresholds from its results, --break-even
+     *               writes the sort-vs-scan curves and --external sorts a file instead of running
+     *               the assignment, --self-test runs the edge case checks. --export file also writes
+     *               the part 1 results as .csv, .json or .bin and --compare baseline current
+     *               [threshold %] exits with 1 if any result regressed. A flag missing its arguments
+     *               prints its usage and exits with 2.
      */
-    public static void main(String[] args) {
+    public static void main(String[] args) throws IOException, InterruptedException {
+        if (args.length > 0 && args[0].equals("--bench")) {
+            runBenchmarkSuite(parseBenchArgs(args));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--bench-fork")) {
+            runBenchmarkFork(args);
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--sweep")) {
+            runSweep(parseBenchArgs(args));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--break-even")) {
+            BenchConfig config = new BenchConfig();
+            config.sizes = BREAK_EVEN_SIZES;
+            config.output = "break-even.csv";
+            runBreakEven(parseBenchArgs(args, config));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--calibrate")) {
+            // --calibrate bench.json, prints the AutoSort thresholds the benchmark results give
+            requireArgs(args, 1, "--calibrate bench.json|.csv|.bin");
+            System.out.println(AutoSort.fromBenchmarks(Path.of(args[1])));
+            return;
+        }
+        if (args.length > 0 && args[0].equals("--self-test")) {
+            int failures = runSelfTests();
+            System.out.println(failures == 0 ? "All self tests passed" : failures + " self tests failed");
+            System.exit(failures == 0 ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--external")) {
+            // --external input output [heap MB]
+            requireArgs(args, 2, "--external input output [heap MB]");
+            long heap = args.length > 3 ? Long.parseLong(args[3]) << 20 : EXTERNAL_DEFAULT_HEAP;
+            long start = System.nanoTime();
+            long count = externalSort(Path.of(args[1]), Path.of(args[2]), heap);
+            long end = System.nanoTime();
+            System.out.printf("External sort: %,d ms %,d ops\n", (end - start) / 1_000_000, count);
+            return;
+        }
+        // --export file writes the part 1 results, --compare checks them against an earlier file
+        if (args.length > 0 && args[0].equals("--compare")) {
+            // --compare baseline current [threshold %]
+            requireArgs(args, 2, "--compare baseline current [threshold %]");
+            double threshold = args.length > 3 ? Double.parseDouble(args[3]) : DEFAULT_REGRESSION_THRESHOLD;
+            int regressions = compareResults(readResults(Path.of(args[1])), readResults(Path.of(args[2])), threshold);
+            System.exit(regressions == 0 ? 0 : 1);
+        }
+        if (args.length > 0 && args[0].equals("--export")) {
+            requireArgs(args, 1, "--export results.csv|results.json|results.bin");
+        }
+        String export = args.length > 1 && args[0].equals("--export") ? args[1] : null;
+
         // PART 1:
         long myStudentID = 886545;
         // Generate arrays of set sizes
@@ -462,24 +7279,16 @@ public class Assignment2_Start_F24 {
                 generateArray(myStudentID, 400),
                 generateArray(myStudentID, 8000)
         };
-        // Array of sort names to be used for output
-        String[] sortNames = {
-                "Selection", "Radix", "Merge", "Insertion", "Quick", "Bubble"
-        };
-        // Initialize an array of all sorting methods for method referencing
-        SortMethod[] sortMethods = {
-                array -> selectionSort(array),
-                array -> radixSort(array),
-                array -> mergeSort(array),
-                array -> insertionSort(array),
-                array -> quickSort(array),
-                array -> bubbleSort(array),
-        };
         // For each array, shuffle it and run each sorting method on it
+        List<ResultRecord> records = new ArrayList<>();
         for (int[] array : arrays) {
-            shuffle(array); // Shuffle the array
+            shuffle(array, myStudentID); // Shuffle the array, the same way every run
             int totalRuns = (1_000_000 / array.length);
-            runArraySort(array, sortMethods, sortNames, totalRuns); // Run every sorting method on the array
+            records.addAll(runArraySort(array, sortMethods, sortNames, totalRuns)); // Run every sorting method on the array
+        }
+        if (export != null) {
+            writeResults(Path.of(export), records);
+            System.out.println("Results written to " + export);
         }
         System.out.println("\n==============================================================\n");
 
@@ -490,37 +7299,44 @@ public class Assignment2_Start_F24 {
         for (int i = 0; i < array.length; i++) {
             array[i] = rand.nextInt(1, 100_000);
         }
-        int result;
-        // Perform linear search for value '-1' in array and track how long it takes
-        long start = System.currentTimeMillis();
-        for (int i : array) {
-            if (i == -1) {
-                result = i;
-            }
-        }
-        long end = System.currentTimeMillis();
-        long linearSearchTime = (end - start);
+        // Perform linear search for value '-1' in array and track how long it takes. One scan is
+        // below the timer resolution, so it is repeated for 100 ms and every result is kept.
+        long found = 0;
+        long searches = 0;
+        long start = System.nanoTime();
+        long end;
+        do {
+            found += linearSearch(array, -1);
+            searches++;
+            end = System.nanoTime();
+        } while (end - start < 100_000_000L);
+        double linearSearchTime = (double) (end - start) / searches;
         // Output linear search time
-        System.out.println("Linear Search: " + linearSearchTime + " ms");
+        System.out.printf("Linear Search: %,.0f ns\n", linearSearchTime);
 
         // Track merge sort time
-        start = System.currentTimeMillis();
+        start = System.nanoTime();
         mergeSort(array);
-        end = System.currentTimeMillis();
+        end = System.nanoTime();
         long sortTime = (end - start);
 
-        // Track binary search time
-        start = System.currentTimeMillis();
-        binarySearchR(array, 0, array.length - 1, -1, 0);
-        end = System.currentTimeMillis();
-        long binarySearchTime = (end - start);
+        // Track binary search time, repeated like the linear search
+        searches = 0;
+        start = System.nanoTime();
+        do {
+            found += binarySearchR(array, 0, array.length - 1, -1, 0)[0];
+            searches++;
+            end = System.nanoTime();
+        } while (end - start < 100_000_000L);
+        double binarySearchTime = (double) (end - start) / searches;
+        blackhole = found;
 
         // Output merge sort and binary search time
-        System.out.println("Merge Sort: " + sortTime + " ms");
-        System.out.println("Binary Search: " + binarySearchTime + " ms");
+        System.out.printf("Merge Sort: %,d ns\n", sortTime);
+        System.out.printf("Binary Search: %,.0f ns\n", binarySearchTime);
 
         // Find the number of linear searches required to justify sorting the array
-        double numLinearSearches = (double) (sortTime + binarySearchTime) / linearSearchTime;
+        double numLinearSearches = breakEvenQueries(sortTime, linearSearchTime, binarySearchTime);
         System.out.println("Linear searches to justify sorting: " + numLinearSearches);
     }
 }